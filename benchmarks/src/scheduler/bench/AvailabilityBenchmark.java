@@ -0,0 +1,57 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Caregiver;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// upload_availability: every call inserts a new (date, caregiver) row past the seeded days
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AvailabilityBenchmark {
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    // each thread owns one caregiver and walks forward one day per call, so inserts never collide
+    @State(Scope.Thread)
+    public static class Uploader {
+        Caregiver caregiver;
+        int nextDay;
+
+        @Setup(Level.Trial)
+        public void setUp(SchedulerState state) {
+            int thread = THREADS.getAndIncrement();
+            caregiver = new Caregiver.CaregiverBuilder(SchedulerState.caregiverName(thread % state.caregivers),
+                    null, null).build();
+            nextDay = state.days + thread * 1_000_000;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uploadAvailability(Uploader uploader) throws SQLException {
+        uploader.caregiver.uploadAvailability(SchedulerState.day(uploader.nextDay++));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void uploadAvailabilityConcurrent(Uploader uploader) throws SQLException {
+        uploader.caregiver.uploadAvailability(SchedulerState.day(uploader.nextDay++));
+    }
+}
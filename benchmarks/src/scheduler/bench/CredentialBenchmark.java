@@ -0,0 +1,51 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.Util;
+
+import java.util.concurrent.TimeUnit;
+
+// Util on its own, no database involved
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CredentialBenchmark {
+
+    private final byte[] salt = Util.generateSalt();
+
+    @Benchmark
+    @Threads(1)
+    public byte[] generateSalt() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] generateSaltContended() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] generateHash() {
+        return Util.generateHash(SchedulerState.PASSWORD, salt);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] generateHashContended() {
+        return Util.generateHash(SchedulerState.PASSWORD, salt);
+    }
+}
@@ -0,0 +1,48 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// login_patient / login_caregiver: one lookup plus one hash per call
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoginBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public Patient loginPatient(SchedulerState state) throws SQLException {
+        return new Patient.PatientGetter(state.randomPatient(), SchedulerState.PASSWORD).get();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Patient loginPatientConcurrent(SchedulerState state) throws SQLException {
+        return new Patient.PatientGetter(state.randomPatient(), SchedulerState.PASSWORD).get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Caregiver loginCaregiver(SchedulerState state) throws SQLException {
+        return new Caregiver.CaregiverGetter(state.randomCaregiver(), SchedulerState.PASSWORD).get();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Caregiver loginCaregiverConcurrent(SchedulerState state) throws SQLException {
+        return new Caregiver.CaregiverGetter(state.randomCaregiver(), SchedulerState.PASSWORD).get();
+    }
+}
@@ -0,0 +1,53 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Appointment;
+import scheduler.model.Patient;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// reserve on random seeded days, and on a single day where every thread fights over the same caregivers
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReservationBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public Appointment reserve(SchedulerState state) throws SQLException {
+        return reserve(state, state.randomDay());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Appointment reserveConcurrent(SchedulerState state) throws SQLException {
+        return reserve(state, state.randomDay());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Appointment reserveSameDay(SchedulerState state) throws SQLException {
+        return reserve(state, SchedulerState.day(0));
+    }
+
+    private static Appointment reserve(SchedulerState state, Date d) throws SQLException {
+        Patient patient = new Patient.PatientBuilder(state.randomPatient(), null, null).build();
+        try {
+            return patient.reserve(d, SchedulerState.VACCINE);
+        } catch (IllegalStateException e) {
+            // the day ran out of caregivers; still a completed (rejected) reservation
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.Repositories;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// The data access behind search_caregiver_schedule and show_appointments, without the console output
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScheduleBenchmark {
+    private static final AppointmentQuery FIRST_PAGE = new AppointmentQuery.AppointmentQueryBuilder().limit(20).build();
+
+    @Benchmark
+    @Threads(1)
+    public void searchCaregiverSchedule(SchedulerState state, Blackhole bh) throws SQLException {
+        search(state, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void searchCaregiverScheduleConcurrent(SchedulerState state, Blackhole bh) throws SQLException {
+        search(state, bh);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void showAppointmentsPatient(SchedulerState state, Blackhole bh) throws SQLException {
+        bh.consume(Repositories.appointments().findByPatient(state.randomPatient()));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void showAppointmentsPatientConcurrent(SchedulerState state, Blackhole bh) throws SQLException {
+        bh.consume(Repositories.appointments().findByPatient(state.randomPatient()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void showAppointmentsCaregiver(SchedulerState state, Blackhole bh) throws SQLException {
+        bh.consume(Repositories.appointments().findByCaregiver(state.randomCaregiver()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void showAppointmentsCaregiverFirstPage(SchedulerState state, Blackhole bh) throws SQLException {
+        bh.consume(Repositories.appointments().streamByCaregiver(state.randomCaregiver(), FIRST_PAGE, bh::consume));
+    }
+
+    private static void search(SchedulerState state, Blackhole bh) throws SQLException {
+        bh.consume(Repositories.availabilities().findCaregivers(state.randomDay()));
+        bh.consume(Repositories.vaccines().findAll());
+    }
+}
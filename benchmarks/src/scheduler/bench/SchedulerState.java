@@ -0,0 +1,155 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.repository.Repositories;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+
+// A scheduler database seeded once per fork: patients, caregivers available on every one of the
+// seeded days, one vaccine with plenty of doses and a few appointments per patient
+@State(Scope.Benchmark)
+public class SchedulerState {
+
+    public static final String PASSWORD = "bench-password";
+    public static final String VACCINE = "bench-vaccine";
+    public static final LocalDate FIRST_DAY = LocalDate.of(2030, 1, 1);
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"embedded", "memory"})
+    public String storage;
+
+    @Param({"100000"})
+    public int patients;
+
+    @Param({"10000"})
+    public int caregivers;
+
+    @Param({"365"})
+    public int days;
+
+    @Param({"1"})
+    public int appointmentsPerPatient;
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        Repositories.init(Repositories.Backend.fromName(storage));
+        if (Repositories.backend() == Repositories.Backend.MEMORY) {
+            seedThroughRepositories();
+        } else {
+            seedWithBatches();
+        }
+        new Vaccine.VaccineBuilder(VACCINE, Integer.MAX_VALUE / 2).build().saveToDB();
+        // appointments go through reserve so they look exactly like production ones
+        for (int i = 0; i < patients * appointmentsPerPatient; i++) {
+            new Patient.PatientBuilder(patientName(i % patients), null, null).build()
+                    .reserve(day(i % days), VACCINE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        Repositories.shutdown();
+    }
+
+    public static String patientName(int i) {
+        return "patient" + i;
+    }
+
+    public static String caregiverName(int i) {
+        return "caregiver" + i;
+    }
+
+    public static Date day(int offset) {
+        return Date.valueOf(FIRST_DAY.plusDays(offset));
+    }
+
+    public String randomPatient() {
+        return patientName(ThreadLocalRandom.current().nextInt(patients));
+    }
+
+    public String randomCaregiver() {
+        return caregiverName(ThreadLocalRandom.current().nextInt(caregivers));
+    }
+
+    public Date randomDay() {
+        return day(ThreadLocalRandom.current().nextInt(days));
+    }
+
+    private void seedThroughRepositories() throws SQLException {
+        for (int i = 0; i < patients; i++) {
+            byte[] salt = Util.generateSalt();
+            new Patient.PatientBuilder(patientName(i), salt, Util.generateHash(PASSWORD, salt)).build().saveToDB();
+        }
+        for (int i = 0; i < caregivers; i++) {
+            byte[] salt = Util.generateSalt();
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(caregiverName(i), salt,
+                    Util.generateHash(PASSWORD, salt)).build();
+            caregiver.saveToDB();
+            for (int d = 0; d < days; d++) {
+                caregiver.uploadAvailability(day(d));
+            }
+        }
+    }
+
+    // millions of single-row inserts would dominate the trial, so JDBC backends are seeded in batches
+    private void seedWithBatches() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            insertUsers(con, "INSERT INTO Patients (Username, Salt, Hash) VALUES (?, ?, ?)", patients, false);
+            insertUsers(con, "INSERT INTO Caregivers (Username, Salt, Hash) VALUES (?, ?, ?)", caregivers, true);
+            PreparedStatement statement = con.prepareStatement("INSERT INTO Availabilities VALUES (?, ?)");
+            int pending = 0;
+            for (int i = 0; i < caregivers; i++) {
+                for (int d = 0; d < days; d++) {
+                    statement.setDate(1, day(d));
+                    statement.setString(2, caregiverName(i));
+                    statement.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        statement.executeBatch();
+                        con.commit();
+                        pending = 0;
+                    }
+                }
+            }
+            statement.executeBatch();
+            con.commit();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void insertUsers(Connection con, String sql, int count, boolean caregiver) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(sql);
+        for (int i = 0; i < count; i++) {
+            byte[] salt = Util.generateSalt();
+            statement.setString(1, caregiver ? caregiverName(i) : patientName(i));
+            statement.setBytes(2, salt);
+            statement.setBytes(3, Util.generateHash(PASSWORD, salt));
+            statement.addBatch();
+            if ((i + 1) % BATCH_SIZE == 0) {
+                statement.executeBatch();
+                con.commit();
+            }
+        }
+        statement.executeBatch();
+        con.commit();
+    }
+}
@@ -1,3 +1,4 @@
+-- The schema as it was first shipped in create.sql
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
@@ -31,4 +32,4 @@ CREATE TABLE Appointments (
     CaregiverName varchar(255) REFERENCES Caregivers(Username),
     PatientName varchar(255) REFERENCES Patients(Username),
     PRIMARY KEY (ID)
-);
\ No newline at end of file
+);
@@ -0,0 +1,4 @@
+-- PBKDF2 iteration count per account, NULL meaning the original 10 (see CredentialService)
+ALTER TABLE Caregivers ADD COLUMN IF NOT EXISTS Iterations int;
+
+ALTER TABLE Patients ADD COLUMN IF NOT EXISTS Iterations int;
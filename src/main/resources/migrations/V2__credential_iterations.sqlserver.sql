@@ -0,0 +1,5 @@
+-- PBKDF2 iteration count per account, NULL meaning the original 10 (see CredentialService).
+-- Databases set up by hand may already have added the columns.
+IF COL_LENGTH('Caregivers', 'Iterations') IS NULL ALTER TABLE Caregivers ADD Iterations int;
+
+IF COL_LENGTH('Patients', 'Iterations') IS NULL ALTER TABLE Patients ADD Iterations int;
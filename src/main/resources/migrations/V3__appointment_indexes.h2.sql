@@ -0,0 +1,4 @@
+-- show_appointments pages through one user's appointments in (Time, ID) order
+CREATE INDEX IF NOT EXISTS AppointmentsByPatient ON Appointments (PatientName, Time, ID);
+
+CREATE INDEX IF NOT EXISTS AppointmentsByCaregiver ON Appointments (CaregiverName, Time, ID);
@@ -0,0 +1,7 @@
+-- show_appointments pages through one user's appointments in (Time, ID) order.
+-- Databases set up by hand may already have these indexes.
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'AppointmentsByPatient')
+    CREATE INDEX AppointmentsByPatient ON Appointments (PatientName, Time, ID);
+
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'AppointmentsByCaregiver')
+    CREATE INDEX AppointmentsByCaregiver ON Appointments (CaregiverName, Time, ID);
@@ -0,0 +1,6 @@
+-- last write-behind inventory batch each node applied to Vaccines, so replays are skipped
+CREATE TABLE IF NOT EXISTS InventoryFlushes (
+    Node varchar(255),
+    Sequence bigint,
+    PRIMARY KEY (Node)
+);
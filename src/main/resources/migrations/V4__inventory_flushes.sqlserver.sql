@@ -0,0 +1,8 @@
+-- last write-behind inventory batch each node applied to Vaccines, so replays are skipped.
+-- Databases set up by hand may already have the table.
+IF OBJECT_ID('InventoryFlushes', 'U') IS NULL
+    CREATE TABLE InventoryFlushes (
+        Node varchar(255),
+        Sequence bigint,
+        PRIMARY KEY (Node)
+    );
@@ -0,0 +1,12 @@
+-- show_appointments and cancel read every column of the rows they find. H2 has no INCLUDE, so the
+-- remaining columns go at the end of the key.
+DROP INDEX IF EXISTS AppointmentsByPatient;
+
+CREATE INDEX AppointmentsByPatient ON Appointments (PatientName, Time, ID, VaccineName, CaregiverName);
+
+DROP INDEX IF EXISTS AppointmentsByCaregiver;
+
+CREATE INDEX AppointmentsByCaregiver ON Appointments (CaregiverName, Time, ID, VaccineName, PatientName);
+
+-- upload_availability_range looks up a caregiver's dates, which the (Time, Username) key cannot seek
+CREATE INDEX IF NOT EXISTS AvailabilitiesByCaregiver ON Availabilities (Username, Time);
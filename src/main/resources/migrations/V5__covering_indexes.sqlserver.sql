@@ -0,0 +1,12 @@
+-- show_appointments and cancel read every column of the rows they find; carrying the remaining
+-- columns in the leaf level answers them from the index alone, without a key lookup per appointment
+CREATE INDEX AppointmentsByPatient ON Appointments (PatientName, Time, ID)
+    INCLUDE (VaccineName, CaregiverName) WITH (DROP_EXISTING = ON);
+
+CREATE INDEX AppointmentsByCaregiver ON Appointments (CaregiverName, Time, ID)
+    INCLUDE (VaccineName, PatientName) WITH (DROP_EXISTING = ON);
+
+-- upload_availability_range looks up a caregiver's dates, which the (Time, Username) key cannot seek.
+-- Databases set up by hand may already have this index.
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'AvailabilitiesByCaregiver')
+    CREATE INDEX AvailabilitiesByCaregiver ON Availabilities (Username, Time);
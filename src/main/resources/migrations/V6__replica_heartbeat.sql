@@ -0,0 +1,8 @@
+-- stamped on the primary and read back from a read replica to tell how far behind the replica is
+CREATE TABLE ReplicaHeartbeat (
+    Id int,
+    Beat bigint,
+    PRIMARY KEY (Id)
+);
+
+INSERT INTO ReplicaHeartbeat (Id, Beat) VALUES (1, 0);
@@ -1,48 +1,77 @@
 package scheduler;
 
 import scheduler.db.ConnectionManager;
+import scheduler.db.ConnectionPool;
+import scheduler.db.ReadReplica;
+import scheduler.db.SqlErrors;
+import scheduler.journal.ReservationJournal;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.Repositories;
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // upload_availability_range refuses ranges longer than this to catch typos in the year
+    private static final int MAX_AVAILABILITY_RANGE_DAYS = 366;
+    // show_appointments without a page size still reads the history in pages of this many rows
+    private static final int SHOW_APPOINTMENTS_CHUNK = 500;
+    // commands report failures only as text; a reply line starting with one of these means the command did nothing
+    private static final String[] FAILURE_REPLIES = {"Please ", "Error occurred", "Invalid operation",
+            "Username taken", "Create failed", "Already logged-in", "No user is currently", "No available",
+            "Our vaccine storage", "Not enough", "Server busy", "The end date", "No more appointments", "No appointment"};
+    private static final Set<String> COMMANDS = new HashSet<>(Arrays.asList("create_patient", "create_caregiver",
+            "login_patient", "login_caregiver", "search_caregiver_schedule", "search_caregiver_schedule_range",
+            "reserve", "upload_availability", "upload_availability_range", "cancel", "cancel_day", "add_doses",
+            "show_appointments", "stats", "logout", "quit"));
+    // served from the read replica when there is one that has caught up with the session's last write
+    private static final Set<String> READ_ONLY_COMMANDS = new HashSet<>(Arrays.asList("search_caregiver_schedule",
+            "search_caregiver_schedule_range", "show_appointments"));
+    // change what the read-only commands show, so the session's next reads must see them
+    private static final Set<String> WRITE_COMMANDS = new HashSet<>(Arrays.asList("create_patient",
+            "create_caregiver", "reserve", "upload_availability", "upload_availability_range", "cancel",
+            "cancel_day", "add_doses"));
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");
-        System.out.println("> reserve <date> <vaccine>");
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");
-        System.out.println("> logout");
-        System.out.println("> quit");
-        System.out.println();
-
-        // read input from user
+        // pick the storage backend: --storage=<sqlserver|embedded|memory> or the Storage environment variable
+        try {
+            Repositories.initFromArgs(args);
+            // the hashing settings too, so a bad one stops startup instead of the first login
+            CredentialService.get();
+        } catch (IllegalArgumentException | SQLException e) {
+            System.out.println("Could not start storage: " + e.getMessage());
+            return;
+        }
+        Metrics.registerMBean();
+
+        printGreeting(System.out);
+
+        // the console is a single session; see SchedulerServer for serving many users at once
+        Session session = new Session(System.out);
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
@@ -52,152 +81,230 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
+            // end of input behaves like quit
+            if (response == null) {
+                break;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
-            } else {
-                System.out.println("Invalid operation name!");
+            if (!execute(session, response)) {
+                break;
+            }
+        }
+        Repositories.shutdown();
+    }
+
+    // true if the reply of a command (all of its output) says the command failed, for tools driving execute
+    public static boolean isFailureReply(String reply) {
+        for (String line : reply.split("\n")) {
+            for (String prefix : FAILURE_REPLIES) {
+                if (line.strip().startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void printGreeting(PrintStream out) {
+        // printing greetings text
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date>");
+        out.println("> search_caregiver_schedule_range <start_date> <end_date>");
+        out.println("> reserve <date> <vaccine>");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_range <start_date> <end_date> [weekday_mask]");
+        out.println("> cancel <appointment_id> [<appointment_id> ...]");
+        out.println("> cancel_day <date>");
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> show_appointments [<page_size> [<from_date> <to_date>] | next]");
+        out.println("> stats");
+        out.println("> logout");
+        out.println("> quit");
+        out.println();
+    }
+
+    // Runs one command line for the given session. Returns false once the session asked to quit.
+    // Sessions share nothing but the storage layer, so any number of them can run concurrently.
+    public static boolean execute(Session session, String response) {
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            session.out.println("Please try again!");
+            return true;
+        }
+        // timed per command name; whatever else people type is lumped together
+        String operation = tokens[0];
+        // both scopes are per thread and only need closing; the commands find them on their own
+        Metrics.CommandScope scope = Metrics.startCommand(COMMANDS.contains(operation) ? operation : "(invalid)");
+        ConnectionManager.ReadOnlyScope reads = READ_ONLY_COMMANDS.contains(operation)
+                ? ConnectionManager.readOnly(session.lastWrite) : null;
+        try {
+            return dispatch(session, operation, tokens);
+        } finally {
+            if (reads != null) {
+                reads.close();
+            }
+            scope.close();
+            if (WRITE_COMMANDS.contains(operation)) {
+                // after the command's commits (failed commands may still have written something)
+                session.lastWrite = System.currentTimeMillis();
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
+    private static boolean dispatch(Session session, String operation, String[] tokens) {
+        // determine which operation to perform
+        if (operation.equals("create_patient")) {
+            createPatient(session, tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(session, tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(session, tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule_range")) {
+            searchCaregiverScheduleRange(session, tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(session, tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(session, tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(session, tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(session, tokens);
+        } else if (operation.equals("cancel_day")) {
+            cancelDay(session, tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(session, tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(session, tokens);
+        } else if (operation.equals("stats")) {
+            stats(session, tokens);
+        } else if (operation.equals("logout")) {
+            logout(session, tokens);
+        } else if (operation.equals("quit")) {
+            session.out.println("Bye!");
+            return false;
+        } else {
+            session.out.println("Invalid operation name!");
+        }
+        return true;
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsPatient(session, username)) {
+            session.out.println("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        CredentialService credentials = CredentialService.get();
         // create the patient
         try {
-            currentPatient = new Patient.PatientBuilder(username, salt, hash).build();
+            byte[] hash = credentials.hash(password, salt);
+            Patient patient = new Patient.PatientBuilder(username, salt, hash, credentials.getIterations()).build();
             // save patient information to our database
-            currentPatient.saveToDB();
-            System.out.println(" *** Account created successfully *** ");
+            patient.saveToDB();
+            session.currentPatient = patient;
+            session.out.println(" *** Account created successfully *** ");
         } catch (SQLException e) {
-            System.out.println("Create failed");
-            e.printStackTrace();
+            // the username check above is answered from memory, the primary key has the final say
+            if (SqlErrors.isIntegrityViolation(e)) {
+                session.out.println("Username taken, try again!");
+                return;
+            }
+            session.out.println("Create failed");
+            failed(e);
+        } catch (IllegalStateException e) {
+            // the hashing pool is saturated
+            session.out.println(e.getMessage());
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Repositories.patients().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            session.out.println("Error occurred when checking username");
+            failed(e);
         }
         return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(session, username)) {
+            session.out.println("Username taken, try again!");
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        CredentialService credentials = CredentialService.get();
         // create the caregiver
         try {
-            currentCaregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
+            byte[] hash = credentials.hash(password, salt);
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash, credentials.getIterations()).build();
             // save caregiver information to our database
-            currentCaregiver.saveToDB();
-            System.out.println(" *** Account created successfully *** ");
+            caregiver.saveToDB();
+            session.currentCaregiver = caregiver;
+            session.out.println(" *** Account created successfully *** ");
         } catch (SQLException e) {
-            System.out.println("Create failed");
-            e.printStackTrace();
+            // the username check above is answered from memory, the primary key has the final say
+            if (SqlErrors.isIntegrityViolation(e)) {
+                session.out.println("Username taken, try again!");
+                return;
+            }
+            session.out.println("Create failed");
+            failed(e);
+        } catch (IllegalStateException e) {
+            // the hashing pool is saturated
+            session.out.println(e.getMessage());
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Repositories.caregivers().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
-            e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            session.out.println("Error occurred when checking username");
+            failed(e);
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static void loginPatient(Session session, String[] tokens) {
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
+        if (session.currentCaregiver != null || session.currentPatient != null) {
+            session.out.println("Already logged-in!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String username = tokens[1];
@@ -207,28 +314,32 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
-            e.printStackTrace();
+            session.out.println("Error occurred when logging in");
+            failed(e);
+        } catch (IllegalStateException e) {
+            // the hashing pool is saturated
+            session.out.println(e.getMessage());
+            return;
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
         } else {
-            System.out.println("Patient logged in as: " + username);
-            currentPatient = patient;
+            session.out.println("Patient logged in as: " + username);
+            session.currentPatient = patient;
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("Already logged-in!");
+        if (session.currentCaregiver != null || session.currentPatient != null) {
+            session.out.println("Already logged-in!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String username = tokens[1];
@@ -238,131 +349,293 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when logging in");
-            e.printStackTrace();
+            session.out.println("Error occurred when logging in");
+            failed(e);
+        } catch (IllegalStateException e) {
+            // the hashing pool is saturated
+            session.out.println(e.getMessage());
+            return;
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
         } else {
-            System.out.println("Caregiver logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.out.println("Caregiver logged in as: " + username);
+            session.currentCaregiver = caregiver;
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
         // check 1: caregiver or patient logged in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please log in first!");
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please log in first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String date = tokens[1];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
         try {
             Date d = Date.valueOf(date);
             // Available caregivers for the given date
-            String searchSchedule = "SELECT Username FROM Availabilities WHERE Time = ?";
-                PreparedStatement schedule = con.prepareStatement(searchSchedule);
-                schedule.setDate(1, d);
-                ResultSet availability = schedule.executeQuery();
-                System.out.print("Available: ");
-                while(availability.next()) {
-                    System.out.println(availability.getString("Username"));
-                }
-                // Available doses left for each vaccine
-                String dosesQuery = "SELECT Name, Doses FROM Vaccines";
-                PreparedStatement availableDoses = con.prepareStatement(dosesQuery);
-                ResultSet vaccineDoses = availableDoses.executeQuery();
-                System.out.println("Available vaccines: ");
-                while(vaccineDoses.next()) {
-                    String vaccineName = vaccineDoses.getString("Name");
-                    int doses = vaccineDoses.getInt("Doses");
-                    if(doses > 0) {
-                        System.out.println(vaccineDoses.getString("Name") + " (" + vaccineDoses.getInt("Doses") + ")");
-                    }
+            List<String> caregivers = Repositories.availabilities().findCaregivers(d);
+            session.out.print("Available: ");
+            for (String caregiver : caregivers) {
+                session.out.println(caregiver);
+            }
+            // Available doses left for each vaccine
+            session.out.println("Available vaccines: ");
+            for (Vaccine vaccine : Repositories.vaccines().findAll()) {
+                if (vaccine.getAvailableDoses() > 0) {
+                    session.out.println(vaccine.getVaccineName() + " (" + vaccine.getAvailableDoses() + ")");
                 }
+            }
         }
         catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.out.println("Please enter a valid date!");
         }
         catch (SQLException e) {
-            System.out.println("Error occurred when searching caregiver schedule");
-            e.printStackTrace();
+            session.out.println("Error occurred when searching caregiver schedule");
+            failed(e);
+        }
+    }
+
+    private static void searchCaregiverScheduleRange(Session session, String[] tokens) {
+        // search_caregiver_schedule_range <start_date> <end_date>
+        // prints how many caregivers are free on each day of the range
+        // check 1: caregiver or patient logged in
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please log in first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3
+        if (tokens.length != 3) {
+            session.out.println("Please try again!");
+            return;
         }
-        finally {
-            cm.closeConnection();
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date!");
+            return;
+        }
+        // check 3: the range has to be in order and of a sane size
+        if (end.isBefore(start)) {
+            session.out.println("The end date cannot be before the start date!");
+            return;
+        }
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_AVAILABILITY_RANGE_DAYS) {
+            session.out.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+            return;
+        }
+        try {
+            Map<Date, Integer> counts = Repositories.availabilities().countByDay(Date.valueOf(start), Date.valueOf(end));
+            for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+                Date d = Date.valueOf(day);
+                session.out.println(d + ": " + counts.getOrDefault(d, 0) + " available");
+            }
+        } catch (SQLException e) {
+            session.out.println("Error occurred when searching caregiver schedule");
+            failed(e);
         }
     }
 
-    private static void reserve(String[] tokens) {
+    private static void reserve(Session session, String[] tokens) {
         // check 1: caregiver or patient logged in
-        if (currentPatient == null) {
-            System.out.println("Please log in as a patient!");
+        if (session.currentPatient == null) {
+            session.out.println("Please log in as a patient!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String date = tokens[1];
         String vaccineName = tokens[2];
         try {
             Date d = Date.valueOf(date);
-            currentPatient.reserve(d, vaccineName);
+            Appointment appointment = session.currentPatient.reserve(d, vaccineName);
+            session.out.println("Appointment ID: " + appointment.getId() + ", Caregiver username: " +
+                    appointment.getCaregiverName());
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date or vaccine name!");
+            session.out.println("Please enter a valid date or vaccine name!");
+        } catch (IllegalStateException e) {
+            session.out.println(e.getMessage());
         } catch (SQLException e) {
-            System.out.println("Error occurred when reserving appointment!");
-            e.printStackTrace();
+            // still colliding with other reservations after the retries
+            session.out.println(SqlErrors.isTransient(e) ? "Server busy, please try again!"
+                    : "Error occurred when reserving appointment!");
+            failed(e);
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
+    private static void uploadAvailability(Session session, String[] tokens) {
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
         if (tokens.length != 2) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String date = tokens[1];
         try {
             Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            session.currentCaregiver.uploadAvailability(d);
+            session.out.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.out.println("Please enter a valid date!");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
+            session.out.println("Error occurred when uploading availability");
+            failed(e);
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start_date> <end_date> [weekday_mask]
+        // the mask has one character per weekday starting on Monday, e.g. 1111100 for weekdays only
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 3 or 4 (the weekday mask is optional)
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.out.println("Please try again!");
+            return;
+        }
+        String mask = tokens.length == 4 ? tokens[3] : "1111111";
+        if (!mask.matches("[01]{7}")) {
+            session.out.println("Please enter a weekday mask of seven 0/1 characters starting on Monday!");
+            return;
+        }
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date!");
+            return;
+        }
+        // check 3: the range has to be in order and of a sane size
+        if (end.isBefore(start)) {
+            session.out.println("The end date cannot be before the start date!");
+            return;
+        }
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_AVAILABILITY_RANGE_DAYS) {
+            session.out.println("Please enter a range of at most " + MAX_AVAILABILITY_RANGE_DAYS + " days!");
+            return;
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (mask.charAt(day.getDayOfWeek().getValue() - 1) == '1') {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        try {
+            int inserted = session.currentCaregiver.uploadAvailability(dates);
+            session.out.println("Availability uploaded! Inserted: " + inserted + ", skipped: " + (dates.size() - inserted));
+        } catch (SQLException e) {
+            session.out.println("Error occurred when uploading availability");
+            failed(e);
+        }
+    }
+
+    private static void cancel(Session session, String[] tokens) {
+        // cancel <appointment_id> [<appointment_id> ...]
+        // check 1: someone has to be logged in; they can only cancel their own appointments
+        if (session.currentPatient == null && session.currentCaregiver == null) {
+            session.out.println("Please login first!");
+            return;
+        }
+        // check 2: at least one appointment id
+        if (tokens.length < 2) {
+            session.out.println("Please try again!");
+            return;
+        }
+        List<Integer> ids = new ArrayList<>();
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                ids.add(Integer.parseInt(tokens[i]));
+            }
+        } catch (NumberFormatException e) {
+            session.out.println("Please enter valid appointment IDs!");
+            return;
+        }
+        try {
+            // all of them go in one transaction, however many there are
+            List<Appointment> cancelled = session.currentPatient != null
+                    ? session.currentPatient.cancel(ids) : session.currentCaregiver.cancel(ids);
+            printCancelled(session, cancelled);
+            List<Integer> missed = new ArrayList<>(ids);
+            for (Appointment appointment : cancelled) {
+                missed.remove(Integer.valueOf(appointment.getId()));
+            }
+            for (Integer id : missed) {
+                session.out.println("No appointment " + id + " of yours to cancel!");
+            }
+        } catch (SQLException e) {
+            session.out.println("Error occurred when cancelling appointments!");
+            failed(e);
+        }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void cancelDay(Session session, String[] tokens) {
+        // cancel_day <date>: a caregiver cancels everything they were booked for that day
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            session.out.println("Please try again!");
+            return;
+        }
+        try {
+            Date d = Date.valueOf(tokens[1]);
+            List<Appointment> cancelled = session.currentCaregiver.cancel(d);
+            if (cancelled.isEmpty()) {
+                session.out.println("No appointments to cancel on this date!");
+                return;
+            }
+            printCancelled(session, cancelled);
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.out.println("Error occurred when cancelling appointments!");
+            failed(e);
+        }
+    }
+
+    private static void printCancelled(Session session, List<Appointment> cancelled) {
+        for (Appointment appointment : cancelled) {
+            session.out.println("Cancelled appointment " + appointment.getId() + " on " + appointment.getTime() +
+                    " (" + appointment.getVaccineName() + ", patient " + appointment.getPatientName() +
+                    ", caregiver " + appointment.getCaregiverName() + ")");
+        }
+    }
+
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
@@ -371,8 +644,8 @@ public class Scheduler {
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            session.out.println("Error occurred when adding doses");
+            failed(e);
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
@@ -381,79 +654,154 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                session.out.println("Error occurred when adding doses");
+                failed(e);
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                session.out.println("Error occurred when adding doses");
+                failed(e);
             }
         }
-        System.out.println("Doses updated!");
+        session.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments                                   every appointment
+        // show_appointments <page_size> [<from> <to>]         the first page, optionally within a date window
+        // show_appointments next                              the page after the last one shown
         // check 1: caregiver or patient logged in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("No user is currently logged in!");
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("No user is currently logged in!");
             return;
         }
-        if (tokens.length != 1) {
-            System.out.println("Please try again!");
+        if (tokens.length > 4 || tokens.length == 3) {
+            session.out.println("Please try again!");
             return;
         }
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        AppointmentQuery page;
+        boolean paged = tokens.length > 1;
         try {
-            if(currentPatient != null) {
-                String showAppointment = "SELECT ID, Time, VaccineName, CaregiverName FROM Appointments WHERE PatientName = ?";
-                PreparedStatement statement = con.prepareStatement(showAppointment);
-                statement.setString(1, currentPatient.getUsername());
-                ResultSet appointments = statement.executeQuery();
-                System.out.println("Current appointments: ");
-                while (appointments.next()) {
-                    System.out.println(appointments.getString("ID") + " " + appointments.getDate("Time") +  " " +
-                            appointments.getString("VaccineName") +  " " + appointments.getString("CaregiverName"));
+            if (tokens.length == 1) {
+                page = new AppointmentQuery.AppointmentQueryBuilder().limit(SHOW_APPOINTMENTS_CHUNK).build();
+            } else if (tokens[1].equals("next")) {
+                if (tokens.length != 2 || session.nextAppointments == null) {
+                    session.out.println("No more appointments to show!");
+                    return;
                 }
+                page = session.nextAppointments;
             } else {
-                String showAppointment = "SELECT ID, Time, VaccineName, PatientName FROM Appointments WHERE CaregiverName = ?";
-                PreparedStatement statement = con.prepareStatement(showAppointment);
-                statement.setString(1, currentCaregiver.getUsername());
-                ResultSet appointments = statement.executeQuery();
-                System.out.println("Current appointments: ");
-                while (appointments.next()) {
-                    System.out.println(appointments.getString("ID") + " " + appointments.getString("VaccineName") + " " +
-                            appointments.getDate("Time") + " " + appointments.getString("PatientName"));
+                AppointmentQuery.AppointmentQueryBuilder builder = new AppointmentQuery.AppointmentQueryBuilder()
+                        .limit(Integer.parseInt(tokens[1]));
+                if (tokens.length == 4) {
+                    builder.window(Date.valueOf(tokens[2]), Date.valueOf(tokens[3]));
                 }
+                page = builder.build();
+            }
+        } catch (IllegalArgumentException e) {
+            // also covers a page size that is not a number and a date that is not a date
+            session.out.println("Please enter a valid page size and dates!");
+            return;
+        }
+        // rows are formatted straight from the result set into a buffer, never collected in a list
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(session.out,
+                StandardCharsets.UTF_8), 8192), false);
+        Appointment[] last = new Appointment[1];
+        try {
+            writer.println("Current appointments: ");
+            while (true) {
+                last[0] = null;
+                int found;
+                if (session.currentPatient != null) {
+                    found = Repositories.appointments().streamByPatient(session.currentPatient.getUsername(), page,
+                            appointment -> {
+                                writer.println(appointment.getId() + " " + appointment.getTime() + " " +
+                                        appointment.getVaccineName() + " " + appointment.getCaregiverName());
+                                last[0] = appointment;
+                            });
+                } else {
+                    found = Repositories.appointments().streamByCaregiver(session.currentCaregiver.getUsername(), page,
+                            appointment -> {
+                                writer.println(appointment.getId() + " " + appointment.getVaccineName() + " " +
+                                        appointment.getTime() + " " + appointment.getPatientName());
+                                last[0] = appointment;
+                            });
+                }
+                writer.flush();
+                boolean more = found > page.getLimit();
+                if (paged) {
+                    session.nextAppointments = more ? page.next(last[0]) : null;
+                    if (more) {
+                        writer.println("More appointments: show_appointments next");
+                    }
+                    break;
+                }
+                if (!more) {
+                    break;
+                }
+                page = page.next(last[0]);
             }
         } catch (SQLException e) {
-            System.out.println("Error occurred when showing appointments!");
-            e.printStackTrace();
+            writer.flush();
+            session.out.println("Error occurred when showing appointments!");
+            failed(e);
         } finally {
-            cm.closeConnection();
+            writer.flush();
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void logout(Session session, String[] tokens) {
         // check if caregiver or patient is logged in
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("No user is currently logged in!");
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("No user is currently logged in!");
             return;
         }
         if (tokens.length != 1) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
-        if (currentPatient != null) {
-            currentPatient = null;
+        if (session.currentPatient != null) {
+            session.currentPatient = null;
         } else {
-            currentCaregiver = null;
+            session.currentCaregiver = null;
+        }
+        session.nextAppointments = null;
+        session.out.println("Successfully logged out!");
+
+    }
+
+    private static void stats(Session session, String[] tokens) {
+        // stats: latency and database round trips per command since startup, for everyone on this server
+        if (tokens.length != 1) {
+            session.out.println("Please try again!");
+            return;
         }
-        System.out.println("Successfully logged out!");
+        session.out.print(Metrics.report());
+        ConnectionPool pool = ConnectionManager.poolIfStarted();
+        if (pool != null) {
+            session.out.println(pool);
+        }
+        ReadReplica replica = ConnectionManager.replica();
+        if (replica != null) {
+            session.out.println(replica);
+        }
+        ReservationJournal journal = Repositories.journal();
+        if (journal != null) {
+            session.out.println(journal);
+        }
+        session.out.println(CredentialService.get());
+    }
 
+    // the command ran into an exception it could only report; counted against the command in stats
+    private static void failed(Exception e) {
+        Metrics.commandFailed();
+        if (e instanceof SQLException) {
+            // the replica may be what failed; the next reads go to the primary then
+            ConnectionManager.readFailed((SQLException) e);
+        }
+        e.printStackTrace();
     }
 }
@@ -0,0 +1,27 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.repository.AppointmentQuery;
+
+import java.io.PrintStream;
+
+// Everything Scheduler needs to remember between the commands of one user: who is logged in and
+// where the replies go. The console has one session, SchedulerServer one per client connection.
+public class Session {
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    Caregiver currentCaregiver = null;
+    Patient currentPatient = null;
+    // where "show_appointments next" continues, null when the last page has been shown
+    AppointmentQuery nextAppointments = null;
+    // when the last command that changed data finished, so reads can avoid a replica that has not caught up
+    long lastWrite = 0;
+
+    final PrintStream out;
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+}
@@ -0,0 +1,277 @@
+package scheduler.cache;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Caregiver availability held in memory as bitmaps, indexed both ways:
+//   caregiver -> the days they are free, one bit per epoch day, spanning only the words actually used
+//   day       -> the caregivers free that day, one bit per caregiver id
+// Caregiver names are interned to small ints once, so a day with 10k free caregivers costs about 1.2KB
+// and a caregiver with a year of availability about 50 bytes. Reads share a read lock; writes are rare
+// (upload_availability, reserve) and take the write lock.
+public class AvailabilityIndex {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<DayBitmap> daysByCaregiver = new ArrayList<>();
+    // epoch day -> caregiver ids; days nobody is free on are dropped
+    private final NavigableMap<Integer, BitSet> caregiversByDay = new TreeMap<>();
+    private long entries = 0;
+
+    // returns false if the caregiver was already free that day
+    public boolean add(Date d, String caregiverName) {
+        int day = epochDay(d);
+        lock.writeLock().lock();
+        try {
+            int id = idOf(caregiverName);
+            if (!daysByCaregiver.get(id).set(day)) {
+                return false;
+            }
+            caregiversByDay.computeIfAbsent(day, key -> new BitSet()).set(id);
+            entries++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // returns false if the caregiver was not free that day
+    public boolean remove(Date d, String caregiverName) {
+        int day = epochDay(d);
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(caregiverName);
+            if (id == null || !daysByCaregiver.get(id).clear(day)) {
+                return false;
+            }
+            BitSet caregivers = caregiversByDay.get(day);
+            caregivers.clear(id);
+            if (caregivers.isEmpty()) {
+                caregiversByDay.remove(day);
+            }
+            entries--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isAvailable(String caregiverName, Date d) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(caregiverName);
+            return id != null && daysByCaregiver.get(id).get(epochDay(d));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> caregivers(Date d) {
+        return caregivers(d, Integer.MAX_VALUE);
+    }
+
+    // the first max caregivers free on d, in id order
+    public List<String> caregivers(Date d, int max) {
+        lock.readLock().lock();
+        try {
+            List<String> caregivers = new ArrayList<>();
+            BitSet free = caregiversByDay.get(epochDay(d));
+            if (free != null) {
+                for (int id = free.nextSetBit(0); id >= 0 && caregivers.size() < max; id = free.nextSetBit(id + 1)) {
+                    caregivers.add(names.get(id));
+                }
+            }
+            return caregivers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // returns null if nobody is free that day
+    public String first(Date d) {
+        lock.readLock().lock();
+        try {
+            BitSet free = caregiversByDay.get(epochDay(d));
+            return free == null ? null : names.get(free.nextSetBit(0));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(Date d) {
+        lock.readLock().lock();
+        try {
+            BitSet free = caregiversByDay.get(epochDay(d));
+            return free == null ? 0 : free.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // free caregivers per day between first and last inclusive, leaving out days nobody is free on
+    public Map<Date, Integer> countByDay(Date first, Date last) {
+        lock.readLock().lock();
+        try {
+            Map<Date, Integer> counts = new TreeMap<>();
+            for (Map.Entry<Integer, BitSet> entry :
+                    caregiversByDay.subMap(epochDay(first), true, epochDay(last), true).entrySet()) {
+                counts.put(Date.valueOf(LocalDate.ofEpochDay(entry.getKey())), entry.getValue().cardinality());
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // how many days between first and last inclusive the caregiver is free on
+    public int countDays(String caregiverName, Date first, Date last) {
+        lock.readLock().lock();
+        try {
+            Integer id = ids.get(caregiverName);
+            return id == null ? 0 : daysByCaregiver.get(id).count(epochDay(first), epochDay(last));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Hands each caregiver's free days to action as a bitmap: bit d of words[i] is epoch day
+    // (firstWord + i) * 64 + d. For saving the index; addDays takes the same form back.
+    public void forEachCaregiver(DaysConsumer action) {
+        lock.readLock().lock();
+        try {
+            for (int id = 0; id < names.size(); id++) {
+                DayBitmap days = daysByCaregiver.get(id);
+                if (days.words.length > 0) {
+                    action.accept(names.get(id), days.firstWord, days.words.clone());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void addDays(String caregiverName, int firstWord, long[] words) {
+        lock.writeLock().lock();
+        try {
+            int id = idOf(caregiverName);
+            DayBitmap days = daysByCaregiver.get(id);
+            for (int i = 0; i < words.length; i++) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    int day = (firstWord + i) * 64 + Long.numberOfTrailingZeros(word);
+                    if (days.set(day)) {
+                        caregiversByDay.computeIfAbsent(day, key -> new BitSet()).set(id);
+                        entries++;
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public interface DaysConsumer {
+        void accept(String caregiverName, int firstWord, long[] words);
+    }
+
+    // number of (day, caregiver) pairs, i.e. rows of Availabilities
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int idOf(String caregiverName) {
+        Integer id = ids.get(caregiverName);
+        if (id == null) {
+            id = names.size();
+            ids.put(caregiverName, id);
+            names.add(caregiverName);
+            daysByCaregiver.add(new DayBitmap());
+        }
+        return id;
+    }
+
+    private static int epochDay(Date d) {
+        return (int) d.toLocalDate().toEpochDay();
+    }
+
+    // One caregiver's days as a bitmap covering words [firstWord, firstWord + words.length), grown on
+    // either side as needed, so only the span between the earliest and latest day costs memory
+    private static class DayBitmap {
+        private int firstWord = 0;
+        private long[] words = new long[0];
+
+        // returns false if the bit was already set
+        boolean set(int day) {
+            int word = Math.floorDiv(day, 64);
+            cover(word);
+            int i = word - firstWord;
+            long bit = 1L << Math.floorMod(day, 64);
+            if ((words[i] & bit) != 0) {
+                return false;
+            }
+            words[i] |= bit;
+            return true;
+        }
+
+        // returns false if the bit was not set
+        boolean clear(int day) {
+            if (!get(day)) {
+                return false;
+            }
+            words[Math.floorDiv(day, 64) - firstWord] &= ~(1L << Math.floorMod(day, 64));
+            return true;
+        }
+
+        boolean get(int day) {
+            int i = Math.floorDiv(day, 64) - firstWord;
+            return i >= 0 && i < words.length && (words[i] & (1L << Math.floorMod(day, 64))) != 0;
+        }
+
+        int count(int first, int last) {
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                int base = (firstWord + i) * 64;
+                if (word == 0 || base + 63 < first || base > last) {
+                    continue;
+                }
+                // mask off the days outside [first, last] in the two edge words
+                if (base < first) {
+                    word &= -1L << (first - base);
+                }
+                if (base + 63 > last) {
+                    word &= -1L >>> (63 - (last - base));
+                }
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        private void cover(int word) {
+            if (words.length == 0) {
+                firstWord = word;
+                words = new long[1];
+            } else if (word < firstWord) {
+                long[] grown = new long[words.length + (firstWord - word)];
+                System.arraycopy(words, 0, grown, firstWord - word, words.length);
+                words = grown;
+                firstWord = word;
+            } else if (word >= firstWord + words.length) {
+                words = Arrays.copyOf(words, word - firstWord + 1);
+            }
+        }
+    }
+}
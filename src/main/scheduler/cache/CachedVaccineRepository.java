@@ -0,0 +1,91 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Vaccine;
+import scheduler.repository.VaccineRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Serves dose counts from an InventoryCache and writes add_doses behind; new vaccines, bulk imports
+// and add_doses inside a shared transaction still go to the database synchronously
+public class CachedVaccineRepository implements VaccineRepository {
+    private final VaccineRepository delegate;
+    private final InventoryCache inventory;
+
+    public CachedVaccineRepository(VaccineRepository delegate, InventoryCache inventory) {
+        this.delegate = delegate;
+        this.inventory = inventory;
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        delegate.save(vaccine);
+        ConnectionManager.afterCommit(() -> inventory.applied(vaccine.getVaccineName(), vaccine.getAvailableDoses()));
+    }
+
+    @Override
+    public Vaccine find(String vaccineName) throws SQLException {
+        Integer doses = inventory.doses(vaccineName);
+        if (doses == null && ConnectionManager.inSharedTransaction()) {
+            // may have been created earlier in this transaction and not be in the inventory until it commits
+            return delegate.find(vaccineName);
+        }
+        return doses == null ? null : new Vaccine.VaccineBuilder(vaccineName, doses).build();
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : inventory.snapshot().entrySet()) {
+            vaccines.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue()).build());
+        }
+        return vaccines;
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int delta) throws SQLException {
+        if (ConnectionManager.inSharedTransaction()) {
+            // the group may still roll back, so the change goes to the table with it and reaches the
+            // inventory only once it commits; the flusher never sees it
+            delegate.addDoses(vaccineName, delta);
+            ConnectionManager.afterCommit(() -> {
+                // the UPDATE left a vaccine that is not stocked alone
+                if (inventory.doses(vaccineName) != null) {
+                    inventory.applied(vaccineName, delta);
+                }
+            });
+            return;
+        }
+        if (!inventory.add(vaccineName, delta)) {
+            // not one of ours; let the database decide what that means
+            delegate.addDoses(vaccineName, delta);
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> deltas) throws SQLException {
+        delegate.addDoses(deltas);
+        ConnectionManager.afterCommit(() -> {
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                inventory.applied(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    @Override
+    public boolean applyDeltas(Map<String, Integer> deltas, String node, long sequence) throws SQLException {
+        return delegate.applyDeltas(deltas, node, sequence);
+    }
+
+    @Override
+    public long lastAppliedSequence(String node) throws SQLException {
+        return delegate.lastAppliedSequence(node);
+    }
+
+    public InventoryCache getInventory() {
+        return inventory;
+    }
+}
@@ -0,0 +1,86 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.AppointmentRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Keeps an AvailabilityIndex in step with reservations: a date nobody is free on is turned away
+// without a database round trip, the caregiver a reservation claimed is taken out of the index, and
+// put back when the appointment is cancelled
+public class IndexedAppointmentRepository implements AppointmentRepository {
+    private final AppointmentRepository delegate;
+    private final AvailabilityIndex index;
+
+    public IndexedAppointmentRepository(AppointmentRepository delegate, AvailabilityIndex index) {
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException {
+        if (index.first(d) == null) {
+            throw new IllegalStateException("No available caregivers for this date!");
+        }
+        Appointment appointment = delegate.reserve(d, vaccineName, patientName);
+        ConnectionManager.afterCommit(() -> index.remove(d, appointment.getCaregiverName()));
+        return appointment;
+    }
+
+    @Override
+    public List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        return reinstated(delegate.cancel(ids, username, caregiver));
+    }
+
+    @Override
+    public List<Appointment> cancelByCaregiver(String caregiverName, Date d) throws SQLException {
+        return reinstated(delegate.cancelByCaregiver(caregiverName, d));
+    }
+
+    // a cancelled appointment frees its caregiver again, like an upload_availability
+    private List<Appointment> reinstated(List<Appointment> cancelled) {
+        ConnectionManager.afterCommit(() -> {
+            for (Appointment appointment : cancelled) {
+                index.add(appointment.getTime(), appointment.getCaregiverName());
+            }
+        });
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientName) throws SQLException {
+        return delegate.findByPatient(patientName);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverName) throws SQLException {
+        return delegate.findByCaregiver(caregiverName);
+    }
+
+    @Override
+    public List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        return delegate.findByIds(ids, username, caregiver);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiverOn(String caregiverName, Date d) throws SQLException {
+        return delegate.findByCaregiverOn(caregiverName, d);
+    }
+
+    @Override
+    public int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return delegate.streamByPatient(patientName, query, action);
+    }
+
+    @Override
+    public int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return delegate.streamByCaregiver(caregiverName, query, action);
+    }
+}
@@ -0,0 +1,68 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.repository.AvailabilityRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// Answers availability lookups from an AvailabilityIndex loaded at startup; uploads still go to
+// the database first and are mirrored into the index once they succeed
+public class IndexedAvailabilityRepository implements AvailabilityRepository {
+    private final AvailabilityRepository delegate;
+    private final AvailabilityIndex index;
+
+    public IndexedAvailabilityRepository(AvailabilityRepository delegate, AvailabilityIndex index) throws SQLException {
+        this(delegate, index, true);
+    }
+
+    // load false: the index already holds the table, e.g. from a ReferenceSnapshot
+    public IndexedAvailabilityRepository(AvailabilityRepository delegate, AvailabilityIndex index, boolean load)
+            throws SQLException {
+        this.delegate = delegate;
+        this.index = index;
+        if (load) {
+            delegate.forEach(index::add);
+        }
+    }
+
+    @Override
+    public void add(Date d, String caregiverName) throws SQLException {
+        delegate.add(d, caregiverName);
+        ConnectionManager.afterCommit(() -> index.add(d, caregiverName));
+    }
+
+    @Override
+    public int addAll(List<Date> dates, String caregiverName) throws SQLException {
+        int inserted = delegate.addAll(dates, caregiverName);
+        // the dates addAll skipped were there already, so the caregiver is free on all of them now
+        ConnectionManager.afterCommit(() -> {
+            for (Date d : dates) {
+                index.add(d, caregiverName);
+            }
+        });
+        return inserted;
+    }
+
+    @Override
+    public List<String> findCaregivers(Date d) {
+        return index.caregivers(d);
+    }
+
+    @Override
+    public Map<Date, Integer> countByDay(Date first, Date last) {
+        return index.countByDay(first, last);
+    }
+
+    @Override
+    public void forEach(BiConsumer<Date, String> action) throws SQLException {
+        delegate.forEach(action);
+    }
+
+    public AvailabilityIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,89 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlErrors;
+import scheduler.model.Caregiver;
+import scheduler.repository.CaregiverRepository;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Answers create_caregiver's "is this username taken?" from a UsernameIndex loaded at startup and
+// kept current on insert; only Bloom filter false positives still reach the database
+public class IndexedCaregiverRepository implements CaregiverRepository {
+    private final CaregiverRepository delegate;
+    private final UsernameIndex index;
+
+    public IndexedCaregiverRepository(CaregiverRepository delegate) throws SQLException {
+        this(delegate, new UsernameIndex());
+        delegate.forEachUsername(index::add);
+    }
+
+    // with an index that is already loaded, e.g. from a ReferenceSnapshot
+    public IndexedCaregiverRepository(CaregiverRepository delegate, UsernameIndex index) {
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    @Override
+    public void save(Caregiver caregiver) throws SQLException {
+        try {
+            delegate.save(caregiver);
+        } catch (SQLException e) {
+            // another node got there first; remember the name so we stop offering it
+            if (SqlErrors.isIntegrityViolation(e)) {
+                index.add(caregiver.getUsername());
+            }
+            throw e;
+        }
+        ConnectionManager.afterCommit(() -> index.add(caregiver.getUsername()));
+    }
+
+    @Override
+    public int saveAll(List<Caregiver> caregivers) throws SQLException {
+        int inserted = delegate.saveAll(caregivers);
+        // the ones saveAll skipped exist already, so every name is taken now
+        ConnectionManager.afterCommit(() -> {
+            for (Caregiver caregiver : caregivers) {
+                index.add(caregiver.getUsername());
+            }
+        });
+        return inserted;
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        switch (index.lookup(username)) {
+            case ABSENT:
+                return false;
+            case PRESENT:
+                return true;
+            default:
+                boolean exists = delegate.exists(username);
+                if (exists) {
+                    index.add(username);
+                }
+                return exists;
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) throws SQLException {
+        delegate.forEachUsername(action);
+    }
+
+    @Override
+    public Caregiver find(String username) throws SQLException {
+        return delegate.find(username);
+    }
+
+    @Override
+    public void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        delegate.updateCredentials(username, salt, hash, iterations);
+    }
+
+    public UsernameIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,89 @@
+package scheduler.cache;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlErrors;
+import scheduler.model.Patient;
+import scheduler.repository.PatientRepository;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Answers create_patient's "is this username taken?" from a UsernameIndex loaded at startup and
+// kept current on insert; only Bloom filter false positives still reach the database
+public class IndexedPatientRepository implements PatientRepository {
+    private final PatientRepository delegate;
+    private final UsernameIndex index;
+
+    public IndexedPatientRepository(PatientRepository delegate) throws SQLException {
+        this(delegate, new UsernameIndex());
+        delegate.forEachUsername(index::add);
+    }
+
+    // with an index that is already loaded, e.g. from a ReferenceSnapshot
+    public IndexedPatientRepository(PatientRepository delegate, UsernameIndex index) {
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    @Override
+    public void save(Patient patient) throws SQLException {
+        try {
+            delegate.save(patient);
+        } catch (SQLException e) {
+            // another node got there first; remember the name so we stop offering it
+            if (SqlErrors.isIntegrityViolation(e)) {
+                index.add(patient.getUsername());
+            }
+            throw e;
+        }
+        ConnectionManager.afterCommit(() -> index.add(patient.getUsername()));
+    }
+
+    @Override
+    public int saveAll(List<Patient> patients) throws SQLException {
+        int inserted = delegate.saveAll(patients);
+        // the ones saveAll skipped exist already, so every name is taken now
+        ConnectionManager.afterCommit(() -> {
+            for (Patient patient : patients) {
+                index.add(patient.getUsername());
+            }
+        });
+        return inserted;
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        switch (index.lookup(username)) {
+            case ABSENT:
+                return false;
+            case PRESENT:
+                return true;
+            default:
+                boolean exists = delegate.exists(username);
+                if (exists) {
+                    index.add(username);
+                }
+                return exists;
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) throws SQLException {
+        delegate.forEachUsername(action);
+    }
+
+    @Override
+    public Patient find(String username) throws SQLException {
+        return delegate.find(username);
+    }
+
+    @Override
+    public void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        delegate.updateCredentials(username, salt, hash, iterations);
+    }
+
+    public UsernameIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,450 @@
+package scheduler.cache;
+
+import scheduler.model.Vaccine;
+import scheduler.repository.VaccineRepository;
+import scheduler.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Dose counts for every vaccine, held in memory and written behind to the Vaccines table.
+//
+// Reads only touch atomic counters. Every take and add is also appended to a local delta log and
+// forced to disk before it returns, so nothing the caller acknowledges (a reservation commits after
+// its take) is lost in a crash; concurrent callers share a force. A flusher thread periodically drains
+// the accumulated per-vaccine deltas into one batch, starts a new delta log, and applies the batch
+// through VaccineRepository.applyDeltas, which records the batch's sequence number in the same
+// transaction. Each delta log (<journal>.<sequence>) holds exactly the deltas of the batch with its
+// sequence number, so at startup the logs left behind by a crash are replayed as those batches; the
+// sequence number makes the replay a no-op if the batch had in fact committed. A take whose
+// reservation never committed because of the crash is replayed too, which undersells by that dose
+// rather than overselling.
+//
+// The counters are authoritative for this process only, so the write-behind mode assumes a single
+// scheduler node updates inventory.
+public class InventoryCache {
+
+    public enum Take { TAKEN, NO_DOSES, UNKNOWN_VACCINE }
+
+    private final VaccineRepository table;
+    private final String node;
+    private final Path journal;
+    private final Map<String, Stock> stock = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    // takes and adds hold the read lock while they change a counter and log it, a drain holds the write
+    // lock, so every delta ends up in the log of the batch it is drained into
+    private final ReentrantReadWriteLock drainLock = new ReentrantReadWriteLock();
+    // the log of the next batch; replaced under the write lock
+    private DeltaLog log;
+
+    // only touched under the flush lock
+    private Batch inFlight = null;
+
+    public InventoryCache(VaccineRepository table, String node, Path journal, long flushMillis) throws SQLException {
+        this(table, node, journal, flushMillis, null);
+    }
+
+    // loaded: dose counts already read, e.g. from a ReferenceSnapshot; only used if there was no
+    // journal to replay, since the replay changed the table after they were read
+    public InventoryCache(VaccineRepository table, String node, Path journal, long flushMillis,
+                          Map<String, Integer> loaded) throws SQLException {
+        this.table = table;
+        this.node = node;
+        this.journal = journal;
+        if (recover() || loaded == null) {
+            for (Vaccine vaccine : table.findAll()) {
+                stock.put(vaccine.getVaccineName(), new Stock(vaccine.getAvailableDoses()));
+            }
+        } else {
+            for (Map.Entry<String, Integer> vaccine : loaded.entrySet()) {
+                stock.put(vaccine.getKey(), new Stock(vaccine.getValue()));
+            }
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inventory-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // reads InventoryFlushMs, InventoryJournal and NodeId
+    public static InventoryCache fromEnvironment(VaccineRepository table) throws SQLException {
+        return fromEnvironment(table, null);
+    }
+
+    public static InventoryCache fromEnvironment(VaccineRepository table, Map<String, Integer> loaded)
+            throws SQLException {
+        String journal = System.getenv("InventoryJournal");
+        return new InventoryCache(table, nodeId(),
+                Paths.get(journal == null ? "inventory.pending" : journal),
+                Util.longEnv("InventoryFlushMs", 1000), loaded);
+    }
+
+    public static String nodeId() {
+        String node = System.getenv("NodeId");
+        if (node != null && !node.isBlank()) {
+            return node;
+        }
+        try {
+            return java.net.InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "scheduler";
+        }
+    }
+
+    // takes one dose if any is left; on disk in the delta log when it returns
+    public Take take(String vaccineName) throws SQLException {
+        Take take = takeBeforeSync(vaccineName);
+        if (take == Take.TAKEN) {
+            sync();
+        }
+        return take;
+    }
+
+    // take() without waiting for the disk, for callers taking many doses at once; sync() before the
+    // reservations commit
+    public Take takeBeforeSync(String vaccineName) throws SQLException {
+        Stock s = stock.get(vaccineName);
+        if (s == null) {
+            return Take.UNKNOWN_VACCINE;
+        }
+        drainLock.readLock().lock();
+        try {
+            int current;
+            do {
+                current = s.available.get();
+                if (current <= 0) {
+                    return Take.NO_DOSES;
+                }
+            } while (!s.available.compareAndSet(current, current - 1));
+            s.unflushed.decrementAndGet();
+            logDelta(s, vaccineName, -1);
+            return Take.TAKEN;
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    // forces what takes and adds have logged so far to disk
+    public void sync() throws SQLException {
+        DeltaLog current;
+        drainLock.readLock().lock();
+        try {
+            current = log;
+        } finally {
+            drainLock.readLock().unlock();
+        }
+        try {
+            // a log replaced since was forced in full when it was
+            current.sync();
+        } catch (IOException e) {
+            throw new SQLException("Could not sync inventory log " + current.path, e);
+        }
+    }
+
+    // Undoes a take() whose reservation did not go through. If that cannot be logged, the dose stays
+    // taken: counting one dose too few is the safe side.
+    public void giveBack(String vaccineName) {
+        try {
+            add(vaccineName, 1);
+        } catch (SQLException e) {
+            System.err.println("Could not return a dose of " + vaccineName + ": " + e.getMessage());
+        }
+    }
+
+    // returns false if the vaccine is unknown, in which case nothing was changed; on disk in the delta
+    // log when it returns
+    public boolean add(String vaccineName, int delta) throws SQLException {
+        Stock s = stock.get(vaccineName);
+        if (s == null) {
+            return false;
+        }
+        drainLock.readLock().lock();
+        try {
+            s.available.addAndGet(delta);
+            s.unflushed.addAndGet(delta);
+            logDelta(s, vaccineName, delta);
+        } finally {
+            drainLock.readLock().unlock();
+        }
+        sync();
+        return true;
+    }
+
+    // called with the read lock held; a delta that cannot be logged is undone
+    private void logDelta(Stock s, String vaccineName, int delta) throws SQLException {
+        try {
+            log.write(vaccineName, delta);
+        } catch (IOException e) {
+            s.available.addAndGet(-delta);
+            s.unflushed.addAndGet(-delta);
+            throw new SQLException("Could not write inventory log " + log.path, e);
+        }
+    }
+
+    // records a change that has already been written to the table synchronously
+    public void applied(String vaccineName, int delta) {
+        Stock s = stock.putIfAbsent(vaccineName, new Stock(delta));
+        if (s != null) {
+            s.available.addAndGet(delta);
+        }
+    }
+
+    // returns null for unknown vaccines
+    public Integer doses(String vaccineName) {
+        Stock s = stock.get(vaccineName);
+        return s == null ? null : s.available.get();
+    }
+
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> doses = new HashMap<>();
+        for (Map.Entry<String, Stock> entry : stock.entrySet()) {
+            doses.put(entry.getKey(), entry.getValue().available.get());
+        }
+        return doses;
+    }
+
+    // Writes everything accumulated so far to the table. A batch that failed to apply is retried
+    // as is (same sequence number) before anything new is drained.
+    public synchronized void flush() throws SQLException, IOException {
+        if (inFlight == null) {
+            drainLock.writeLock().lock();
+            try {
+                Map<String, Integer> deltas = drain();
+                if (deltas.isEmpty()) {
+                    return;
+                }
+                DeltaLog full = log;
+                try {
+                    log = DeltaLog.create(journal, full.sequence + 1);
+                } catch (IOException e) {
+                    // still in the current log, so they go back into the current batch
+                    for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                        stock.get(entry.getKey()).unflushed.addAndGet(entry.getValue());
+                    }
+                    throw e;
+                }
+                inFlight = new Batch(full.sequence, deltas, full);
+            } finally {
+                drainLock.writeLock().unlock();
+            }
+        }
+        // nothing is written to the log any more; callers still waiting on it find it forced
+        inFlight.log.sync();
+        table.applyDeltas(inFlight.deltas, node, inFlight.sequence);
+        inFlight.log.delete();
+        inFlight = null;
+    }
+
+    public void close() {
+        flusher.shutdownNow();
+        flushQuietly();
+        try {
+            log.close();
+        } catch (IOException e) {
+            // replayed at the next start if anything is left in it
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | IOException e) {
+            System.err.println("Inventory flush failed, will retry: " + e.getMessage());
+        }
+    }
+
+    private Map<String, Integer> drain() {
+        Map<String, Integer> deltas = new HashMap<>();
+        for (Map.Entry<String, Stock> entry : stock.entrySet()) {
+            int delta = entry.getValue().unflushed.getAndSet(0);
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+            }
+        }
+        return deltas;
+    }
+
+    // Replays the batches a crash left behind and opens the log of the next one; returns true if
+    // there was anything to replay
+    private boolean recover() throws SQLException {
+        long sequence = table.lastAppliedSequence(node);
+        boolean replayed = false;
+        try {
+            for (Map.Entry<Long, Path> entry : DeltaLog.find(journal).entrySet()) {
+                long logSequence = entry.getKey();
+                if (logSequence > sequence) {
+                    Map<String, Integer> deltas = DeltaLog.read(entry.getValue());
+                    if (!deltas.isEmpty()) {
+                        if (table.applyDeltas(deltas, node, logSequence)) {
+                            System.out.println("Replayed inventory batch " + logSequence + " from " + entry.getValue());
+                        }
+                        replayed = true;
+                    }
+                    sequence = logSequence;
+                }
+                Files.delete(entry.getValue());
+            }
+            log = DeltaLog.create(journal, sequence + 1);
+            return replayed;
+        } catch (IOException e) {
+            throw new SQLException("Could not replay inventory journal " + journal, e);
+        }
+    }
+
+    private static class Stock {
+        private final AtomicInteger available;
+        // change since the last drain, positive or negative
+        private final AtomicInteger unflushed = new AtomicInteger();
+
+        private Stock(int available) {
+            this.available = new AtomicInteger(available);
+        }
+    }
+
+    private static class Batch {
+        private final long sequence;
+        private final Map<String, Integer> deltas;
+        // the delta log holding the batch, deleted once it is applied
+        private final DeltaLog log;
+
+        private Batch(long sequence, Map<String, Integer> deltas, DeltaLog log) {
+            this.sequence = sequence;
+            this.deltas = deltas;
+            this.log = log;
+        }
+    }
+
+    // The takes and adds of one batch, appended as they happen. Record layout, big-endian: name length,
+    // UTF-8 name, delta, CRC-32 of the name and delta. A record cut short by a crash, or failing its
+    // checksum, ends the log; it was never forced, so never acknowledged.
+    private static class DeltaLog {
+        private final Path path;
+        private final long sequence;
+        private final FileChannel channel;
+        // one force at a time; callers whose deltas a running force covers do not start another
+        private final Object forcing = new Object();
+        // bytes written and bytes known to be on disk, guarded by this
+        private long written = 0;
+        private long synced = 0;
+
+        private DeltaLog(Path path, long sequence, FileChannel channel) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+        }
+
+        static DeltaLog create(Path journal, long sequence) throws IOException {
+            Path path = Paths.get(journal + "." + sequence);
+            return new DeltaLog(path, sequence, FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        }
+
+        // the logs next to the journal, by sequence number
+        static Map<Long, Path> find(Path journal) throws IOException {
+            Path dir = journal.toAbsolutePath().getParent();
+            String prefix = journal.getFileName() + ".";
+            Map<Long, Path> logs = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, journal.getFileName() + ".*")) {
+                for (Path file : stream) {
+                    String suffix = file.getFileName().toString().substring(prefix.length());
+                    if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                        logs.put(Long.parseLong(suffix), file);
+                    }
+                }
+            }
+            return logs;
+        }
+
+        // the deltas of a log, summed per vaccine
+        static Map<String, Integer> read(Path path) throws IOException {
+            Map<String, Integer> deltas = new HashMap<>();
+            try (InputStream stream = new BufferedInputStream(Files.newInputStream(path));
+                 DataInputStream in = new DataInputStream(stream)) {
+                while (true) {
+                    byte[] name = new byte[in.readUnsignedShort()];
+                    in.readFully(name);
+                    int delta = in.readInt();
+                    if (in.readInt() != checksum(name, delta)) {
+                        break;
+                    }
+                    deltas.merge(new String(name, StandardCharsets.UTF_8), delta, Integer::sum);
+                }
+            } catch (EOFException e) {
+                // the end, or a record the crash cut short
+            }
+            return deltas;
+        }
+
+        synchronized void write(String vaccineName, int delta) throws IOException {
+            byte[] name = vaccineName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(2 + name.length + 8);
+            record.putShort((short) name.length).put(name).putInt(delta).putInt(checksum(name, delta)).flip();
+            while (record.hasRemaining()) {
+                written += channel.write(record);
+            }
+        }
+
+        void sync() throws IOException {
+            long target;
+            synchronized (this) {
+                target = written;
+                if (synced >= target) {
+                    return;
+                }
+            }
+            synchronized (forcing) {
+                long upTo;
+                synchronized (this) {
+                    if (synced >= target) {
+                        return;
+                    }
+                    upTo = written;
+                }
+                channel.force(false);
+                synchronized (this) {
+                    synced = Math.max(synced, upTo);
+                }
+            }
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+
+        private static int checksum(byte[] name, int delta) {
+            CRC32 crc = new CRC32();
+            crc.update(name);
+            crc.update(ByteBuffer.allocate(4).putInt(delta).array());
+            return (int) crc.getValue();
+        }
+    }
+}
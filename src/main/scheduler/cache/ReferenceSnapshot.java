@@ -0,0 +1,392 @@
+package scheduler.cache;
+
+import scheduler.model.Vaccine;
+import scheduler.repository.AvailabilityRepository;
+import scheduler.repository.CaregiverRepository;
+import scheduler.repository.ChangeFeed;
+import scheduler.repository.PatientRepository;
+import scheduler.repository.VaccineRepository;
+import scheduler.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// The reference data the caches hold (username indexes, availability bitmaps, dose counts) saved to a
+// local file, so a restart reads the file plus whatever changed since it was saved instead of scanning
+// Patients, Caregivers, Availabilities and Vaccines over the network.
+//
+// The file records the database version (from the ChangeFeed) read before the data it holds was, and
+// the data is that version's plus whatever this process changed afterwards. At startup the changes
+// since that version are applied on top, which brings every row touched since then, by any node, to
+// its current state. Without a feed, or when the feed no longer covers the file's version, the tables
+// are read in full as before. Each save catches up the same way, on a copy, so the file a long-running
+// process leaves behind is as recent as the save rather than as old as the start.
+//
+// Layout, big-endian, followed by a CRC-32 of everything before it:
+//   magic, format, database version, saved at, source (CRC-32 of the connection URL)
+//   patients:     count, fingerprints
+//   caregivers:   count, fingerprints
+//   availability: caregivers, then per caregiver: name, first word, word count, words
+//   vaccines:     count, then per vaccine: name, doses
+// Strings are a short length followed by UTF-8. The file is memory-mapped to read it.
+public class ReferenceSnapshot {
+    private static final int MAGIC = 0x53434844;
+    private static final int FORMAT = 1;
+
+    private final Path file;
+    private final long source;
+    // every this often the snapshot is saved again; 0 saves at load and close only
+    private final long saveMillis;
+    private ScheduledExecutorService saver = null;
+    // null when the database cannot tell what changed, in which case nothing is saved either
+    private ChangeFeed feed = null;
+
+    private UsernameIndex patients = new UsernameIndex();
+    private UsernameIndex caregivers = new UsernameIndex();
+    private AvailabilityIndex availability = new AvailabilityIndex();
+    private Map<String, Integer> vaccines = new HashMap<>();
+    // the database version the data is current as of, -1 before load
+    private long version = -1;
+
+    public ReferenceSnapshot(Path file, String connectionUrl, long saveMillis) {
+        this.file = file;
+        this.saveMillis = saveMillis;
+        CRC32 crc = new CRC32();
+        crc.update(connectionUrl.getBytes(StandardCharsets.UTF_8));
+        this.source = crc.getValue();
+    }
+
+    // null unless SnapshotFile names the file to keep the snapshot in; saved again every
+    // SnapshotSaveMs (default 10 minutes, 0 for only at startup and shutdown)
+    public static ReferenceSnapshot fromEnvironment(String connectionUrl) {
+        String file = System.getenv("SnapshotFile");
+        if (file == null || file.isBlank()) {
+            return null;
+        }
+        return new ReferenceSnapshot(Paths.get(file.trim()), connectionUrl, Util.longEnv("SnapshotSaveMs", 600_000));
+    }
+
+    // Fills the indexes, from the file and the changes since it was saved when it can, else from the
+    // tables; then saves them, so the next start only has to catch up from here. feed is null when the
+    // database cannot tell what changed.
+    public void load(ChangeFeed feed, PatientRepository patientTable, CaregiverRepository caregiverTable,
+                     VaccineRepository vaccineTable, AvailabilityRepository availabilityTable) throws SQLException {
+        long start = System.nanoTime();
+        this.feed = feed;
+        // read before any data, so whatever is committed while we read is in the next catch-up
+        long current = feed == null ? -1 : feed.currentVersion();
+        long saved = feed == null ? -1 : read();
+        if (saved >= 0 && feed.covers(saved)) {
+            Catchup catchup = new Catchup(patients, caregivers, availability, vaccines);
+            feed.changesSince(saved, catchup);
+            System.out.println(String.format("Loaded reference snapshot %s (version %d) and %d changes in %d ms",
+                    file, saved, catchup.count, (System.nanoTime() - start) / 1_000_000));
+        } else {
+            if (feed == null) {
+                System.out.println("The database does not track changes, reference snapshot " + file + " not used");
+            } else if (saved >= 0) {
+                System.out.println("Reference snapshot " + file + " is too old to catch up, reading the tables");
+            }
+            clear();
+            patientTable.forEachUsername(patients::add);
+            caregiverTable.forEachUsername(caregivers::add);
+            availabilityTable.forEach(availability::add);
+            for (Vaccine vaccine : vaccineTable.findAll()) {
+                vaccines.put(vaccine.getVaccineName(), vaccine.getAvailableDoses());
+            }
+            System.out.println(String.format("Read reference data from the database in %d ms",
+                    (System.nanoTime() - start) / 1_000_000));
+        }
+        version = current;
+        saveQuietly();
+        if (feed != null && saveMillis > 0) {
+            saver = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "snapshot-saver");
+                t.setDaemon(true);
+                return t;
+            });
+            saver.scheduleWithFixedDelay(this::saveQuietly, saveMillis, saveMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public UsernameIndex patients() {
+        return patients;
+    }
+
+    public UsernameIndex caregivers() {
+        return caregivers;
+    }
+
+    public AvailabilityIndex availability() {
+        return availability;
+    }
+
+    // dose counts as of load; the inventory cache starts from these
+    public Map<String, Integer> vaccines() {
+        return vaccines;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // Writes the indexes as they are now, caught up to the database's current version: the indexes are
+    // copied, the changes since load (by any node) applied to the copies, and the file records the
+    // version read before the changes were. The caches keep serving the indexes as loaded, which only
+    // see this process's own changes. Called every saveMillis and at close.
+    public synchronized void save() throws IOException, SQLException {
+        if (feed == null || version < 0) {
+            return;
+        }
+        // read before the changes, so whatever is committed while they are read is in the next catch-up
+        long current = feed.currentVersion();
+        if (!feed.covers(version)) {
+            // the changes since load are gone; the file on disk is older still, so the next start reads the tables
+            System.out.println("Reference snapshot " + file + " can no longer catch up, not saving it");
+            return;
+        }
+        // copied out first, so uploads and reservations are not held up while the file is written
+        UsernameIndex patientCopy = copy(patients);
+        UsernameIndex caregiverCopy = copy(caregivers);
+        AvailabilityIndex availabilityCopy = new AvailabilityIndex();
+        availability.forEachCaregiver(availabilityCopy::addDays);
+        Map<String, Integer> vaccineCopy = new HashMap<>(vaccines);
+        feed.changesSince(version, new Catchup(patientCopy, caregiverCopy, availabilityCopy, vaccineCopy));
+        List<CaregiverDays> days = new ArrayList<>();
+        availabilityCopy.forEachCaregiver((name, firstWord, words) -> days.add(new CaregiverDays(name, firstWord, words)));
+        long[] patientPrints = patientCopy.fingerprints();
+        long[] caregiverPrints = caregiverCopy.fingerprints();
+
+        Path tmp = Paths.get(file + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(current);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(source);
+            writeFingerprints(out, patientPrints);
+            writeFingerprints(out, caregiverPrints);
+            out.writeInt(days.size());
+            for (CaregiverDays caregiver : days) {
+                writeString(out, caregiver.name);
+                out.writeInt(caregiver.firstWord);
+                out.writeInt(caregiver.words.length);
+                for (long word : caregiver.words) {
+                    out.writeLong(word);
+                }
+            }
+            out.writeInt(vaccineCopy.size());
+            for (Map.Entry<String, Integer> vaccine : vaccineCopy.entrySet()) {
+                writeString(out, vaccine.getKey());
+                out.writeInt(vaccine.getValue());
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | SQLException e) {
+            // only costs the next start a longer catch-up, or a full read
+            System.out.println("Could not save reference snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    // stops the periodic saves and saves one last time
+    public void close() {
+        if (saver != null) {
+            saver.shutdown();
+            try {
+                saver.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            saver = null;
+        }
+        saveQuietly();
+    }
+
+    private static UsernameIndex copy(UsernameIndex index) {
+        UsernameIndex copy = new UsernameIndex();
+        for (long fingerprint : index.fingerprints()) {
+            copy.addFingerprint(fingerprint);
+        }
+        return copy;
+    }
+
+    // Reads the file into the indexes and returns its database version, or -1 (indexes left empty)
+    // when there is no usable file
+    private long read() {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 8 || !checksumMatches(buffer)) {
+                throw new IOException("checksum mismatch");
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                throw new IOException("not a snapshot of this format");
+            }
+            long saved = buffer.getLong();
+            buffer.getLong();
+            if (buffer.getLong() != source) {
+                System.out.println("Reference snapshot " + file + " is of another database, ignoring it");
+                return -1;
+            }
+            readFingerprints(buffer, patients);
+            readFingerprints(buffer, caregivers);
+            int caregiverCount = buffer.getInt();
+            for (int i = 0; i < caregiverCount; i++) {
+                String name = readString(buffer);
+                int firstWord = buffer.getInt();
+                long[] words = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(words);
+                buffer.position(buffer.position() + words.length * 8);
+                availability.addDays(name, firstWord, words);
+            }
+            int vaccineCount = buffer.getInt();
+            for (int i = 0; i < vaccineCount; i++) {
+                vaccines.put(readString(buffer), buffer.getInt());
+            }
+            return saved;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.out.println("Ignoring unreadable reference snapshot " + file + ": " + e.getMessage());
+            clear();
+            return -1;
+        }
+    }
+
+    private void clear() {
+        patients = new UsernameIndex();
+        caregivers = new UsernameIndex();
+        availability = new AvailabilityIndex();
+        vaccines = new HashMap<>();
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(buffer.limit() - 8);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return crc.getValue() == buffer.getLong(buffer.limit() - 8);
+    }
+
+    private static void writeFingerprints(DataOutputStream out, long[] fingerprints) throws IOException {
+        out.writeInt(fingerprints.length);
+        for (long fingerprint : fingerprints) {
+            out.writeLong(fingerprint);
+        }
+    }
+
+    private static void readFingerprints(ByteBuffer buffer, UsernameIndex index) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            index.addFingerprint(buffer.getLong());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // applies the feed's changes to the indexes read from the file, or to copies of them for a save
+    private static class Catchup implements ChangeFeed.Changes {
+        private final UsernameIndex patients;
+        private final UsernameIndex caregivers;
+        private final AvailabilityIndex availability;
+        private final Map<String, Integer> vaccines;
+        private int count = 0;
+
+        private Catchup(UsernameIndex patients, UsernameIndex caregivers, AvailabilityIndex availability,
+                        Map<String, Integer> vaccines) {
+            this.patients = patients;
+            this.caregivers = caregivers;
+            this.availability = availability;
+            this.vaccines = vaccines;
+        }
+
+        @Override
+        public void patient(String username) {
+            count++;
+            patients.add(username);
+        }
+
+        @Override
+        public void caregiver(String username) {
+            count++;
+            caregivers.add(username);
+        }
+
+        @Override
+        public void availability(Date d, String caregiverName, boolean present) {
+            count++;
+            if (present) {
+                availability.add(d, caregiverName);
+            } else {
+                availability.remove(d, caregiverName);
+            }
+        }
+
+        @Override
+        public void vaccine(String name, Integer doses) {
+            count++;
+            if (doses == null) {
+                vaccines.remove(name);
+            } else {
+                vaccines.put(name, doses);
+            }
+        }
+    }
+
+    private static class CaregiverDays {
+        private final String name;
+        private final int firstWord;
+        private final long[] words;
+
+        private CaregiverDays(String name, int firstWord, long[] words) {
+            this.name = name;
+            this.firstWord = firstWord;
+            this.words = words;
+        }
+    }
+}
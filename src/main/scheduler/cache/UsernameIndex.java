@@ -0,0 +1,143 @@
+package scheduler.cache;
+
+import java.nio.charset.StandardCharsets;
+
+// In-process set of taken usernames for one table. A Bloom filter answers most "is this name free?"
+// questions without touching the set; names are kept as 64-bit fingerprints in an open-addressing
+// table (8 bytes each instead of a String per name).
+//
+// The index only knows about names loaded at startup and inserted through this process, so
+// "absent" is a strong hint, not a guarantee: the table's primary key stays the final arbiter.
+public class UsernameIndex {
+
+    public enum Lookup { ABSENT, PRESENT, UNKNOWN }
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_CAPACITY = 1 << 16;
+
+    private volatile BloomFilter bloom;
+    private long bloomCapacity;
+    private long[] fingerprints;
+    private int size = 0;
+
+    public UsernameIndex() {
+        this.bloomCapacity = MIN_CAPACITY;
+        this.bloom = new BloomFilter(bloomCapacity, FALSE_POSITIVE_RATE);
+        this.fingerprints = new long[MIN_CAPACITY * 2];
+    }
+
+    // ABSENT: nobody here has the name. PRESENT: the name is taken.
+    // UNKNOWN: only the Bloom filter matched (a false positive), ask the database.
+    public Lookup lookup(String username) {
+        long fingerprint = fingerprint(username);
+        if (!bloom.mightContain(fingerprint)) {
+            return Lookup.ABSENT;
+        }
+        return contains(fingerprint) ? Lookup.PRESENT : Lookup.UNKNOWN;
+    }
+
+    public void add(String username) {
+        addFingerprint(fingerprint(username));
+    }
+
+    // for indexes saved by ReferenceSnapshot, which keeps the fingerprints rather than the names
+    public synchronized void addFingerprint(long fingerprint) {
+        if (!insert(fingerprint)) {
+            return;
+        }
+        size++;
+        if (size > bloomCapacity) {
+            rebuildBloom();
+        } else {
+            bloom.add(fingerprint);
+        }
+        // keep the table at most three quarters full so probe chains stay short
+        if (size * 4L > fingerprints.length * 3L) {
+            resize();
+        }
+    }
+
+    public synchronized long[] fingerprints() {
+        long[] taken = new long[size];
+        int i = 0;
+        for (long fingerprint : fingerprints) {
+            if (fingerprint != 0) {
+                taken[i++] = fingerprint;
+            }
+        }
+        return taken;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long sizeInBytes() {
+        return fingerprints.length * 8L + bloom.sizeInBytes();
+    }
+
+    private synchronized boolean contains(long fingerprint) {
+        int mask = fingerprints.length - 1;
+        for (int i = spread(fingerprint) & mask; fingerprints[i] != 0; i = (i + 1) & mask) {
+            if (fingerprints[i] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns false if the fingerprint was already there
+    private boolean insert(long fingerprint) {
+        int mask = fingerprints.length - 1;
+        int i = spread(fingerprint) & mask;
+        while (fingerprints[i] != 0) {
+            if (fingerprints[i] == fingerprint) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        fingerprints[i] = fingerprint;
+        return true;
+    }
+
+    private void resize() {
+        long[] old = fingerprints;
+        fingerprints = new long[old.length * 2];
+        for (long fingerprint : old) {
+            if (fingerprint != 0) {
+                insert(fingerprint);
+            }
+        }
+    }
+
+    // the filter was sized for fewer names than we now hold; double it so the false positive rate holds
+    private void rebuildBloom() {
+        bloomCapacity *= 2;
+        BloomFilter bigger = new BloomFilter(bloomCapacity, FALSE_POSITIVE_RATE);
+        for (long fingerprint : fingerprints) {
+            if (fingerprint != 0) {
+                bigger.add(fingerprint);
+            }
+        }
+        bloom = bigger;
+    }
+
+    private static int spread(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer; 0 is reserved for empty slots
+    static long fingerprint(String username) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
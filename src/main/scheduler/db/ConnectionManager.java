@@ -1,41 +1,268 @@
 package scheduler.db;
 
+import scheduler.util.Util;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static String userName = System.getenv("UserID");
+    private static String userPass = System.getenv("Password");
+
+    // every ConnectionManager borrows from the same pool, so the driver is loaded
+    // and the TLS handshake paid once per physical connection instead of per command
+    private static volatile ConnectionPool pool = null;
+
+    // where read-only commands read from when it is up and caught up, null when there is no replica
+    private static volatile ReadReplica replica = null;
+
+    // the transaction a batch of commands on this thread is sharing, if any
+    private static final ThreadLocal<SharedTransaction> shared = new ThreadLocal<>();
+    // set while a read-only command runs on this thread
+    private static final ThreadLocal<ReadOnlyScope> readOnly = new ThreadLocal<>();
 
     private Connection con = null;
+    // the replica con was borrowed from, null when it came from the primary
+    private ReadReplica from = null;
+    // the pool con was borrowed from when it came from the primary; a pool that has been shut down
+    // since discards it, and no new pool is started just to take it back
+    private ConnectionPool owner = null;
 
     public ConnectionManager() {
+    }
+
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (ConnectionManager.class) {
+                p = pool;
+                if (p == null) {
+                    try {
+                        Class.forName(driverName);
+                    } catch (ClassNotFoundException e) {
+                        System.out.println(e.toString());
+                    }
+                    p = new ConnectionPool(connectionUrl, userName, userPass, ConnectionPool.Config.fromEnvironment());
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    public static String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    // the pool if anything has borrowed from it yet, without starting one
+    public static ConnectionPool poolIfStarted() {
+        return pool;
+    }
+
+    // points every ConnectionManager at a different database, e.g. an embedded one;
+    // must be called before the first connection is borrowed
+    public static synchronized void configure(String driver, String url, String user, String pass) {
+        if (pool != null) {
+            throw new IllegalStateException("Connection pool already started");
+        }
+        driverName = driver;
+        connectionUrl = url;
+        userName = user;
+        userPass = pass;
+    }
+
+    // Starts serving read-only commands from a replica of the database, with the same driver and pool
+    // settings as the primary. ReplicaMaxLagMs (default 5000) is how far behind it may fall before reads
+    // go back to the primary, ReplicaCheckMs (default 1000) how often its lag is measured, and
+    // ReplicaHeartbeat=off assumes it is always ReplicaMaxLagMs behind instead of measuring.
+    public static synchronized void startReplica(String url, String user, String pass) {
+        if (replica != null) {
+            throw new IllegalStateException("Read replica already started");
+        }
+        ConnectionPool.Config config = ConnectionPool.Config.builderFromEnvironment()
+                .slowQueryLog(ConnectionPool.Config.stringEnv("SlowQueryLog", "slow-queries.log") + ".replica")
+                .build();
+        replica = new ReadReplica(url, user, pass, config, Util.intEnv("ReplicaMaxLagMs", 5000),
+                Util.intEnv("ReplicaCheckMs", 1000),
+                !"off".equalsIgnoreCase(System.getenv("ReplicaHeartbeat")));
+    }
+
+    // ReplicaUrl (with ReplicaUserID and ReplicaPassword, defaulting to the primary's) points at the
+    // replica; ReadReplica=on uses the read-only replica an Azure SQL database keeps of itself
+    public static synchronized void startReplicaFromEnvironment() {
+        if (replica != null) {
+            return;
+        }
+        String url = System.getenv("ReplicaUrl");
+        if ((url == null || url.isBlank()) && "on".equalsIgnoreCase(System.getenv("ReadReplica"))) {
+            url = connectionUrl + ";applicationIntent=ReadOnly";
+        }
+        if (url == null || url.isBlank()) {
+            return;
+        }
+        String user = System.getenv("ReplicaUserID");
+        String pass = System.getenv("ReplicaPassword");
+        startReplica(url.trim(), user == null ? userName : user, pass == null ? userPass : pass);
+    }
+
+    // null unless a replica was started
+    public static ReadReplica replica() {
+        return replica;
+    }
+
+    public static synchronized void shutdown() {
+        if (replica != null) {
+            replica.close();
+            replica = null;
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    // Until commitSharedTransaction or rollbackSharedTransaction, every ConnectionManager on this
+    // thread hands out the same connection, and nothing it does is committed on its own
+    public static void beginSharedTransaction() throws SQLException {
+        if (shared.get() != null) {
+            throw new IllegalStateException("A shared transaction is already open on this thread");
+        }
+        ConnectionPool p = getPool();
+        Connection con = p.borrow();
+        try {
+            shared.set(new SharedTransaction(p, con));
+        } catch (SQLException e) {
+            p.release(con);
+            throw e;
+        }
+    }
+
+    public static boolean inSharedTransaction() {
+        return shared.get() != null;
+    }
+
+    public static void commitSharedTransaction() throws SQLException {
+        SharedTransaction transaction = shared.get();
+        if (transaction == null) {
+            return;
+        }
+        shared.remove();
         try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+            transaction.commit();
+        } finally {
+            transaction.pool().release(transaction.physicalConnection());
         }
     }
 
-    public Connection createConnection() {
+    public static void rollbackSharedTransaction() {
+        SharedTransaction transaction = shared.get();
+        if (transaction == null) {
+            return;
+        }
+        shared.remove();
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            transaction.rollback();
         } catch (SQLException e) {
-            e.printStackTrace();
+            // the pool rolls back (or discards) the connection on release anyway
+        } finally {
+            transaction.pool().release(transaction.physicalConnection());
+        }
+    }
+
+    // Runs action once the current work is durable: right away, or when the shared transaction on
+    // this thread commits (and never if it rolls back). For caches that mirror what was written.
+    public static void afterCommit(Runnable action) {
+        SharedTransaction transaction = shared.get();
+        if (transaction == null) {
+            action.run();
+        } else {
+            transaction.afterCommit(action);
+        }
+    }
+
+    // Until the scope is closed, connections created on this thread come from the replica if there is
+    // one that is up and has caught up with lastWrite, the commit time of the caller's latest write
+    // (0 for none), so a user always sees their own changes
+    public static ReadOnlyScope readOnly(long lastWrite) {
+        ReadOnlyScope scope = new ReadOnlyScope(lastWrite);
+        readOnly.set(scope);
+        return scope;
+    }
+
+    // Raises the read-only scope on this thread (if any) to changes committed at time, for writes that
+    // reach the database after the command that made them, like those of the reservation journal
+    public static void readNotBefore(long time) {
+        ReadOnlyScope scope = readOnly.get();
+        if (scope != null && scope.lastWrite < time) {
+            scope.lastWrite = time;
         }
+    }
+
+    // A read in the read-only scope on this thread failed; if it was on the replica, reads go to the
+    // primary until the replica answers its next heartbeat
+    public static void readFailed(SQLException e) {
+        ReadOnlyScope scope = readOnly.get();
+        ReadReplica r = replica;
+        if (scope != null && scope.usedReplica && r != null) {
+            r.failed(e);
+        }
+    }
+
+    public Connection createConnection() throws SQLException {
+        SharedTransaction transaction = shared.get();
+        if (transaction != null) {
+            con = transaction.connection();
+            return con;
+        }
+        ReadOnlyScope scope = readOnly.get();
+        ReadReplica r = replica;
+        if (scope != null && r != null) {
+            con = r.borrowFor(scope.lastWrite);
+            if (con != null) {
+                from = r;
+                scope.usedReplica = true;
+                return con;
+            }
+        }
+        // an acquire timeout is an ordinary outcome under load; the caller reports it (SqlErrors.isTransient)
+        ConnectionPool p = getPool();
+        con = p.borrow();
+        owner = p;
         return con;
     }
 
     public void closeConnection() {
-        try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (this.con == null) {
+            return;
+        }
+        SharedTransaction transaction = shared.get();
+        if (from != null) {
+            from.release(this.con);
+            from = null;
+        } else if (transaction != null && transaction.connection() == this.con) {
+            transaction.released();
+        } else if (owner != null) {
+            owner.release(this.con);
+            owner = null;
+        }
+        this.con = null;
+    }
+
+    public static class ReadOnlyScope implements AutoCloseable {
+        private long lastWrite;
+        private boolean usedReplica = false;
+
+        private ReadOnlyScope(long lastWrite) {
+            this.lastWrite = lastWrite;
+        }
+
+        @Override
+        public void close() {
+            readOnly.remove();
         }
     }
 }
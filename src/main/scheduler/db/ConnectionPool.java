@@ -0,0 +1,455 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConnectionPool {
+
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+    private final Config config;
+
+    // idle connections, most recently returned first so hot connections get reused
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, PooledConnection> borrowed = new ConcurrentHashMap<>();
+    // one permit per connection we are allowed to have open
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+    // null unless slow query tracing is on
+    private final QueryTracer tracer;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String connectionUrl, String userName, String userPass, Config config) {
+        this.connectionUrl = connectionUrl;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize, true);
+        this.tracer = openTracer(config);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        this.housekeeper.scheduleWithFixedDelay(this::houseKeep, config.housekeepingMillis,
+                config.housekeepingMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return acquire();
+        } finally {
+            Metrics.recordPoolWait(System.nanoTime() - start);
+        }
+    }
+
+    private Connection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(config.acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + config.acquireTimeoutMillis +
+                        " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrower = config.leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowed.put(pooled.connection, pooled);
+            return pooled.connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(Connection con) {
+        PooledConnection pooled = borrowed.remove(con);
+        if (pooled == null) {
+            // not ours (or already released), nothing to give back
+            return;
+        }
+        try {
+            if (pooled.statements != null) {
+                pooled.statements.release();
+            }
+            if (closed || con.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            // leave the connection the way the next borrower expects it
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public long getStatementCacheHits() {
+        return statementCounters.hits.sum();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCounters.misses.sum();
+    }
+
+    public long getStatementCacheEvictions() {
+        return statementCounters.evictions.sum();
+    }
+
+    // share of prepareStatement calls served from the cache, 0 before the first one
+    public double getStatementCacheHitRate() {
+        long hits = getStatementCacheHits();
+        long lookups = hits + getStatementCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        String stats = String.format("connections=%d idle=%d active=%d statementHits=%d statementMisses=%d " +
+                        "statementEvictions=%d statementHitRate=%.1f%%", getTotalConnections(), getIdleConnections(),
+                getActiveConnections(), getStatementCacheHits(), getStatementCacheMisses(),
+                getStatementCacheEvictions(), getStatementCacheHitRate() * 100);
+        return tracer == null ? stats : stats + " traced=" + tracer.getTraced() + " slow=" + tracer.getSlow();
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+        if (tracer != null) {
+            tracer.close();
+        }
+    }
+
+    private static QueryTracer openTracer(Config config) {
+        if (config.slowQueryMillis < 0) {
+            return null;
+        }
+        try {
+            return new QueryTracer(config.slowQueryMillis, config.slowQueryLog, config.slowQueryLogBytes,
+                    config.slowQueryLogFiles);
+        } catch (IOException e) {
+            // tracing is a diagnostic, not a reason to refuse service
+            System.out.println("Slow query log disabled, cannot open " + config.slowQueryLog + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isUsable(pooled)) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+        return null;
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        // connections handed back moments ago are almost certainly fine, skip the extra round trip
+        if (System.currentTimeMillis() - pooled.lastUsed < config.validationBypassMillis) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(config.validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection con = new InstrumentedConnection(
+                DriverManager.getConnection(connectionUrl, userName, userPass), tracer).connection();
+        total.incrementAndGet();
+        if (config.statementCacheSize <= 0) {
+            return new PooledConnection(con, null);
+        }
+        StatementCache statements = new StatementCache(con, config.statementCacheSize, statementCounters);
+        return new PooledConnection(statements.connection(), statements);
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        if (pooled.statements != null) {
+            pooled.statements.closeAll();
+        }
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // the connection is going away anyway
+        }
+    }
+
+    private void houseKeep() {
+        try {
+            evictIdle();
+            fillToMinimum();
+            detectLeaks();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        // oldest idle connections sit at the tail of the deque
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext() && total.get() > config.minSize) {
+            PooledConnection pooled = it.next();
+            if (now - pooled.lastUsed > config.idleTimeoutMillis && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!closed && total.get() < config.minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = open();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                System.out.println("Could not open database connection: " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        if (config.leakThresholdMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed.values()) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > config.leakThresholdMillis) {
+                pooled.leakReported = true;
+                System.err.println("Possible connection leak: connection held for " +
+                        (now - pooled.borrowedAt) + " ms");
+                if (pooled.borrower != null) {
+                    pooled.borrower.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static class PooledConnection {
+        // the statement cache's proxy when statement caching is on
+        private final Connection connection;
+        private final StatementCache statements;
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile Throwable borrower;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection connection, StatementCache statements) {
+            this.connection = connection;
+            this.statements = statements;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    public static class Config {
+        private final int minSize;
+        private final int maxSize;
+        private final long acquireTimeoutMillis;
+        private final long idleTimeoutMillis;
+        private final long leakThresholdMillis;
+        private final long validationBypassMillis;
+        private final int validationTimeoutSeconds;
+        private final long housekeepingMillis;
+        private final int statementCacheSize;
+        private final long slowQueryMillis;
+        private final String slowQueryLog;
+        private final int slowQueryLogBytes;
+        private final int slowQueryLogFiles;
+
+        private Config(ConfigBuilder builder) {
+            this.minSize = builder.minSize;
+            this.maxSize = builder.maxSize;
+            this.acquireTimeoutMillis = builder.acquireTimeoutMillis;
+            this.idleTimeoutMillis = builder.idleTimeoutMillis;
+            this.leakThresholdMillis = builder.leakThresholdMillis;
+            this.validationBypassMillis = builder.validationBypassMillis;
+            this.validationTimeoutSeconds = builder.validationTimeoutSeconds;
+            this.housekeepingMillis = builder.housekeepingMillis;
+            this.statementCacheSize = builder.statementCacheSize;
+            this.slowQueryMillis = builder.slowQueryMillis;
+            this.slowQueryLog = builder.slowQueryLog;
+            this.slowQueryLogBytes = builder.slowQueryLogBytes;
+            this.slowQueryLogFiles = builder.slowQueryLogFiles;
+        }
+
+        // reads PoolMinSize, PoolMaxSize, PoolAcquireTimeoutMs, PoolIdleTimeoutMs, PoolLeakThresholdMs,
+        // PoolStatementCacheSize, and for the slow query log SlowQueryMs, SlowQueryLog, SlowQueryLogBytes
+        // and SlowQueryLogFiles
+        public static Config fromEnvironment() {
+            return builderFromEnvironment().build();
+        }
+
+        // the settings fromEnvironment reads, for a pool that needs some of them changed
+        public static ConfigBuilder builderFromEnvironment() {
+            return new ConfigBuilder()
+                    .minSize(Util.intEnv("PoolMinSize", 2))
+                    .maxSize(Util.intEnv("PoolMaxSize", 10))
+                    .acquireTimeoutMillis(Util.intEnv("PoolAcquireTimeoutMs", 30_000))
+                    .idleTimeoutMillis(Util.intEnv("PoolIdleTimeoutMs", 600_000))
+                    .leakThresholdMillis(Util.intEnv("PoolLeakThresholdMs", 60_000))
+                    .statementCacheSize(Util.intEnv("PoolStatementCacheSize", 64))
+                    .slowQueryMillis(Util.intEnv("SlowQueryMs", -1))
+                    .slowQueryLog(stringEnv("SlowQueryLog", "slow-queries.log"))
+                    .slowQueryLogBytes(Util.intEnv("SlowQueryLogBytes", 10 << 20))
+                    .slowQueryLogFiles(Util.intEnv("SlowQueryLogFiles", 5));
+        }
+
+        static String stringEnv(String name, String defaultValue) {
+            String value = System.getenv(name);
+            return value == null || value.isBlank() ? defaultValue : value.trim();
+        }
+    }
+
+    public static class ConfigBuilder {
+        private int minSize = 2;
+        private int maxSize = 10;
+        private long acquireTimeoutMillis = 30_000;
+        private long idleTimeoutMillis = 600_000;
+        private long leakThresholdMillis = 60_000;
+        private long validationBypassMillis = 500;
+        private int validationTimeoutSeconds = 5;
+        private long housekeepingMillis = 30_000;
+        private int statementCacheSize = 64;
+        private long slowQueryMillis = -1;
+        private String slowQueryLog = "slow-queries.log";
+        private int slowQueryLogBytes = 10 << 20;
+        private int slowQueryLogFiles = 5;
+
+        public ConfigBuilder minSize(int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        public ConfigBuilder maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public ConfigBuilder acquireTimeoutMillis(long acquireTimeoutMillis) {
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            return this;
+        }
+
+        public ConfigBuilder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        // 0 turns leak detection off
+        public ConfigBuilder leakThresholdMillis(long leakThresholdMillis) {
+            this.leakThresholdMillis = leakThresholdMillis;
+            return this;
+        }
+
+        public ConfigBuilder validationBypassMillis(long validationBypassMillis) {
+            this.validationBypassMillis = validationBypassMillis;
+            return this;
+        }
+
+        public ConfigBuilder validationTimeoutSeconds(int validationTimeoutSeconds) {
+            this.validationTimeoutSeconds = validationTimeoutSeconds;
+            return this;
+        }
+
+        public ConfigBuilder housekeepingMillis(long housekeepingMillis) {
+            this.housekeepingMillis = housekeepingMillis;
+            return this;
+        }
+
+        // prepared statements kept open per connection; 0 turns the statement cache off
+        public ConfigBuilder statementCacheSize(int statementCacheSize) {
+            this.statementCacheSize = statementCacheSize;
+            return this;
+        }
+
+        // statements taking at least this long go to the slow query log; 0 logs every statement,
+        // negative (the default) turns tracing off
+        public ConfigBuilder slowQueryMillis(long slowQueryMillis) {
+            this.slowQueryMillis = slowQueryMillis;
+            return this;
+        }
+
+        // FileHandler pattern of the slow query log; rotates through slowQueryLogFiles files of slowQueryLogBytes
+        public ConfigBuilder slowQueryLog(String slowQueryLog) {
+            this.slowQueryLog = slowQueryLog;
+            return this;
+        }
+
+        public ConfigBuilder slowQueryLogBytes(int slowQueryLogBytes) {
+            this.slowQueryLogBytes = slowQueryLogBytes;
+            return this;
+        }
+
+        public ConfigBuilder slowQueryLogFiles(int slowQueryLogFiles) {
+            this.slowQueryLogFiles = slowQueryLogFiles;
+            return this;
+        }
+
+        public Config build() {
+            if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+                throw new IllegalArgumentException("Pool size must satisfy 0 <= min <= max and max >= 1");
+            }
+            return new Config(this);
+        }
+    }
+}
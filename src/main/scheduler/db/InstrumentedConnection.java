@@ -0,0 +1,262 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Times every round trip on a physical connection: each execute* call of the statements it creates,
+// plus commit and rollback, goes into Metrics (and into the round trips of the command running on this
+// thread). It sits directly on the driver's connection, beneath the StatementCache, so cached and
+// uncached statements are counted alike.
+//
+// With a QueryTracer, statements also remember their SQL and the types bound to each parameter, and
+// hand the tracer the rows they touched: the update count, or for queries the rows read by the time
+// the result set is closed (so a query's time includes fetching its rows).
+class InstrumentedConnection implements InvocationHandler {
+    private final Connection connection;
+    private final Connection proxy;
+    // null unless slow query tracing is on
+    private final QueryTracer tracer;
+
+    InstrumentedConnection(Connection connection, QueryTracer tracer) {
+        this.connection = connection;
+        this.tracer = tracer;
+        this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    Connection connection() {
+        return proxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "InstrumentedConnection(" + connection + ")";
+            case "commit":
+            case "rollback":
+                return timed(method, args);
+            case "createStatement":
+                return instrument(Statement.class, call(connection, method, args), null);
+            case "prepareStatement":
+                return instrument(PreparedStatement.class, call(connection, method, args), (String) args[0]);
+            case "prepareCall":
+                return instrument(CallableStatement.class, call(connection, method, args), (String) args[0]);
+            default:
+                return call(connection, method, args);
+        }
+    }
+
+    private Object instrument(Class<? extends Statement> type, Object statement, String sql) {
+        TimedStatement handler = new TimedStatement(statement, sql);
+        handler.proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+        return handler.proxy;
+    }
+
+    private Object timed(Method method, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = call(connection, method, args);
+            failed = false;
+            return result;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            Metrics.recordStatement(nanos, failed);
+            if (tracer != null) {
+                tracer.trace(Metrics.currentCommand(), method.getName().toUpperCase(), "()", -1, nanos, failed);
+            }
+        }
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class TimedStatement implements InvocationHandler {
+        private final Object statement;
+        private Object proxy;
+        // only kept while tracing
+        private final String preparedSql;
+        private final List<String> parameters = new ArrayList<>();
+        private int batches = 0;
+        private TracedResults open = null;
+
+        private TimedStatement(Object statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getConnection":
+                    return InstrumentedConnection.this.proxy;
+                default:
+                    if (name.startsWith("execute")) {
+                        // execute, executeQuery, executeUpdate, executeBatch, executeLargeUpdate, ...
+                        return execute(method, args);
+                    }
+                    if (tracer != null) {
+                        remember(name, args);
+                    }
+                    return call(statement, method, args);
+            }
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            if (tracer != null) {
+                finishQuery();
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            Object result = null;
+            try {
+                result = call(statement, method, args);
+                failed = false;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                Metrics.recordStatement(nanos, failed);
+                if (tracer != null) {
+                    String sql = args != null && args.length > 0 && args[0] instanceof String
+                            ? (String) args[0] : preparedSql;
+                    if (result instanceof ResultSet) {
+                        // traced when the result set is closed, with the rows actually read
+                        open = new TracedResults((ResultSet) result, sql, shape(), start);
+                        result = open.proxy;
+                    } else {
+                        tracer.trace(Metrics.currentCommand(), sql, shape(), rows(result), nanos, failed);
+                    }
+                    batches = 0;
+                }
+            }
+            return result;
+        }
+
+        private void remember(String name, Object[] args) {
+            if (name.equals("close")) {
+                finishQuery();
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch") && preparedSql != null) {
+                batches++;
+            } else if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                // setString(1, ...), setDate(2, ...), setNull(3, Types.X)
+                int index = (Integer) args[0];
+                while (parameters.size() < index) {
+                    parameters.add("?");
+                }
+                parameters.set(index - 1, name.equals("setNull") || args[1] == null
+                        ? "null" : args[1].getClass().getSimpleName());
+            }
+        }
+
+        private void finishQuery() {
+            if (open != null) {
+                open.finish();
+                open = null;
+            }
+        }
+
+        private String shape() {
+            String shape = "(" + String.join(", ", parameters) + ")";
+            return batches > 0 ? shape + " x" + batches : shape;
+        }
+
+        private long rows(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return ((Number) result).longValue();
+            }
+            if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(0, count);
+                }
+                return rows;
+            }
+            if (result instanceof long[]) {
+                long rows = 0;
+                for (long count : (long[]) result) {
+                    rows += Math.max(0, count);
+                }
+                return rows;
+            }
+            // execute(): the driver would need another call to tell
+            return -1;
+        }
+
+        // A result set that counts the rows read through it and traces its query when it is closed
+        private class TracedResults implements InvocationHandler {
+            private final ResultSet results;
+            private final ResultSet proxy;
+            private final String sql;
+            private final String shape;
+            private final long start;
+            private long rows = 0;
+            private boolean finished = false;
+
+            private TracedResults(ResultSet results, String sql, String shape, long start) {
+                this.results = results;
+                this.sql = sql;
+                this.shape = shape;
+                this.start = start;
+                this.proxy = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, this);
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "getStatement":
+                        return TimedStatement.this.proxy;
+                    case "next":
+                        Object more = call(results, method, args);
+                        if (Boolean.TRUE.equals(more)) {
+                            rows++;
+                        }
+                        return more;
+                    case "close":
+                        finish();
+                        return call(results, method, args);
+                    default:
+                        return call(results, method, args);
+                }
+            }
+
+            private void finish() {
+                if (!finished) {
+                    finished = true;
+                    tracer.trace(Metrics.currentCommand(), sql, shape, rows, System.nanoTime() - start, false);
+                }
+            }
+        }
+    }
+}
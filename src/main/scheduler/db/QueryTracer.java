@@ -0,0 +1,74 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+// Writes the statements that took at least `thresholdNanos` to a rotating log, one line each:
+//
+//   2026-10-17T09:12:44.123Z reserve#1832 41.207 ms rows=1 params=(String, Date) UPDATE Availabilities ...
+//
+// with the command (and its number, see Metrics.currentCommand) that sent it, so every statement of one
+// slow reserve can be found together. A threshold of 0 logs every statement. The pool only creates a
+// tracer when SlowQueryMs is set; without one, connections do no tracing work at all.
+class QueryTracer {
+    private final long thresholdNanos;
+    private final Logger logger;
+    private final FileHandler handler;
+    private final LongAdder traced = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    // pattern may use FileHandler's %g for the generation number; without one it is appended
+    QueryTracer(long thresholdMillis, String pattern, int fileBytes, int files) throws IOException {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+        this.handler = new FileHandler(pattern.contains("%g") || files <= 1 ? pattern : pattern + ".%g",
+                fileBytes, Math.max(1, files), true);
+        this.handler.setFormatter(new LineFormatter());
+        this.logger = Logger.getAnonymousLogger();
+        this.logger.setUseParentHandlers(false);
+        this.logger.setLevel(Level.INFO);
+        this.logger.addHandler(handler);
+    }
+
+    void trace(String command, String sql, String params, long rows, long nanos, boolean failed) {
+        traced.increment();
+        if (nanos < thresholdNanos) {
+            return;
+        }
+        slow.increment();
+        StringBuilder line = new StringBuilder(160 + (sql == null ? 0 : sql.length()));
+        line.append(command == null ? "-" : command)
+                .append(String.format(" %.3f ms", nanos / 1e6))
+                .append(" rows=").append(rows < 0 ? "?" : Long.toString(rows))
+                .append(" params=").append(params);
+        if (failed) {
+            line.append(" FAILED");
+        }
+        line.append(' ').append(sql == null ? "?" : sql.replaceAll("\\s+", " ").strip());
+        logger.info(line.toString());
+    }
+
+    long getTraced() {
+        return traced.sum();
+    }
+
+    long getSlow() {
+        return slow.sum();
+    }
+
+    void close() {
+        handler.close();
+    }
+
+    private static class LineFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return Instant.ofEpochMilli(record.getMillis()) + " " + record.getMessage() + System.lineSeparator();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// A read-only copy of the database that read-only commands are served from when it is up and close
+// enough behind the primary; otherwise they go to the primary like everything else.
+//
+// How far behind it is comes from the ReplicaHeartbeat row: every checkMillis this process stamps
+// it on the primary with the current time and reads it back from the replica. Everything committed
+// on the primary before the stamp the replica shows is on the replica too, so a reader whose last
+// write is older than that stamp sees its own writes there. Without heartbeats (a replica that is
+// not a copy of the primary, two separate embedded databases for example) the replica is assumed to
+// be maxLagMillis behind.
+public class ReadReplica {
+    private final ConnectionPool pool;
+    private final long maxLagMillis;
+    private final boolean heartbeat;
+    private final ScheduledExecutorService monitor;
+    // time on the primary up to which the replica has everything; 0 until the first heartbeat comes back
+    private volatile long caughtUpTo = 0;
+    // false from a failed borrow or heartbeat until the next heartbeat gets through
+    private volatile boolean up = true;
+
+    public ReadReplica(String connectionUrl, String userName, String userPass, ConnectionPool.Config config,
+                       long maxLagMillis, long checkMillis, boolean heartbeat) {
+        this.pool = new ConnectionPool(connectionUrl, userName, userPass, config);
+        this.maxLagMillis = maxLagMillis;
+        this.heartbeat = heartbeat;
+        this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "read-replica-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        this.monitor.scheduleWithFixedDelay(this::check, 0, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // A connection to the replica for a reader whose last write committed at lastWrite (0 for none),
+    // or null when the replica is down or has not caught up with that write yet
+    Connection borrowFor(long lastWrite) {
+        if (!up) {
+            Metrics.count("reads.replica_down");
+            return null;
+        }
+        long upTo = heartbeat ? caughtUpTo : System.currentTimeMillis() - maxLagMillis;
+        if (upTo <= lastWrite || System.currentTimeMillis() - upTo > maxLagMillis) {
+            Metrics.count("reads.replica_behind");
+            return null;
+        }
+        try {
+            Connection con = pool.borrow();
+            Metrics.count("reads.replica");
+            return con;
+        } catch (SQLException e) {
+            failed(e);
+            return null;
+        }
+    }
+
+    void release(Connection con) {
+        pool.release(con);
+    }
+
+    // a statement on the replica failed; reads go to the primary until the next heartbeat gets through
+    public void failed(SQLException e) {
+        if (up) {
+            up = false;
+            System.out.println("Read replica unavailable, reading from the primary: " + e.getMessage());
+        }
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public long getLagMillis() {
+        long upTo = caughtUpTo;
+        return upTo == 0 ? -1 : System.currentTimeMillis() - upTo;
+    }
+
+    public boolean isUp() {
+        return up;
+    }
+
+    @Override
+    public String toString() {
+        return (up ? "replica up" : "replica down") + (heartbeat ? " lag=" + getLagMillis() + "ms" : "") +
+                " " + pool;
+    }
+
+    public void close() {
+        monitor.shutdownNow();
+        pool.close();
+    }
+
+    private void check() {
+        try {
+            if (heartbeat) {
+                stamp();
+                caughtUpTo = readStamp();
+            } else {
+                Connection con = pool.borrow();
+                pool.release(con);
+            }
+            if (!up) {
+                up = true;
+                System.out.println("Read replica available again");
+            }
+        } catch (SQLException e) {
+            failed(e);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // several nodes stamp the same row; it only ever moves forward
+    private static void stamp() {
+        ConnectionPool primary = ConnectionManager.getPool();
+        Connection con = null;
+        try {
+            con = primary.borrow();
+            PreparedStatement statement = con.prepareStatement(
+                    "UPDATE ReplicaHeartbeat SET Beat = ? WHERE Id = 1 AND Beat < ?");
+            long now = System.currentTimeMillis();
+            statement.setLong(1, now);
+            statement.setLong(2, now);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            // the primary being down is not the replica's problem
+            System.out.println("Could not write the replica heartbeat: " + e.getMessage());
+        } finally {
+            if (con != null) {
+                primary.release(con);
+            }
+        }
+    }
+
+    private long readStamp() throws SQLException {
+        Connection con = pool.borrow();
+        try {
+            ResultSet resultSet = con.prepareStatement("SELECT Beat FROM ReplicaHeartbeat WHERE Id = 1").executeQuery();
+            long beat = resultSet.next() ? resultSet.getLong("Beat") : 0;
+            resultSet.close();
+            return beat;
+        } finally {
+            pool.release(con);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Runs a self-contained transaction again when it fails for a transient reason (see
+// SqlErrors.isTransient), sleeping a jittered exponential backoff in between so the transactions
+// that collided do not collide again in lockstep. Retries and give-ups are counted in Metrics as
+// "<name>.retries" and "<name>.gave_up".
+//
+// Nothing is retried inside a shared transaction: the failure rolled back the work of the commands
+// before this one too, and only whoever began the transaction can decide what to do about that.
+public class RetryPolicy {
+
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    public RetryPolicy(int maxRetries, long baseBackoffMillis, long maxBackoffMillis) {
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    // ReserveRetries (default 3) extra attempts, starting ReserveRetryBackoffMs (default 10) apart
+    public static RetryPolicy fromEnvironment() {
+        return new RetryPolicy(Util.intEnv("ReserveRetries", 3), Util.intEnv("ReserveRetryBackoffMs", 10), 500);
+    }
+
+    public <T> T run(String name, SqlCall<T> call) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                if (!SqlErrors.isTransient(e) || ConnectionManager.inSharedTransaction()) {
+                    throw e;
+                }
+                if (attempt >= maxRetries) {
+                    Metrics.count(name + ".gave_up");
+                    throw e;
+                }
+                Metrics.count(name + ".retries");
+                backOff(attempt);
+            }
+        }
+    }
+
+    // half of the exponential step for sure, the other half at random
+    private void backOff(int attempt) throws SQLException {
+        long step = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        long sleep = step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+        try {
+            Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry", e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+// One database transaction shared by several commands on the same thread (see
+// ConnectionManager.beginSharedTransaction). Repositories keep managing "their" transaction as
+// usual; on the shared connection that maps onto savepoints:
+//   setAutoCommit(false)  starts a nested transaction at a new savepoint
+//   commit()              ends it and starts the next one, the work stays pending in the outer one
+//   rollback()            undoes the work since the savepoint only
+//   setAutoCommit(true)   ends the nested transaction
+//   close()               does nothing
+// so a command that fails and rolls back does not take the rest of the group with it. Only
+// commit() of the SharedTransaction itself makes the work durable.
+class SharedTransaction implements InvocationHandler {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Connection proxy;
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    // null while the repository using the connection is in auto-commit mode
+    private Savepoint savepoint = null;
+
+    SharedTransaction(ConnectionPool pool, Connection connection) throws SQLException {
+        this.pool = pool;
+        this.connection = connection;
+        connection.setAutoCommit(false);
+        this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    Connection connection() {
+        return proxy;
+    }
+
+    Connection physicalConnection() {
+        return connection;
+    }
+
+    // the pool the connection goes back to
+    ConnectionPool pool() {
+        return pool;
+    }
+
+    // a repository is done with the connection; whatever it left uncommitted stays in the shared transaction
+    void released() {
+        savepoint = null;
+    }
+
+    void afterCommit(Runnable action) {
+        afterCommit.add(action);
+    }
+
+    void commit() throws SQLException {
+        connection.commit();
+        for (Runnable action : afterCommit) {
+            action.run();
+        }
+        afterCommit.clear();
+    }
+
+    void rollback() throws SQLException {
+        afterCommit.clear();
+        connection.rollback();
+    }
+
+    @Override
+    public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return target == args[0];
+            case "hashCode":
+                return System.identityHashCode(target);
+            case "close":
+                return null;
+            case "isClosed":
+                return connection.isClosed();
+            case "getAutoCommit":
+                return savepoint == null;
+            case "setAutoCommit":
+                savepoint = (Boolean) args[0] ? null : connection.setSavepoint();
+                return null;
+            case "commit":
+                if (savepoint != null) {
+                    savepoint = connection.setSavepoint();
+                }
+                return null;
+            case "rollback":
+                if (args == null || args.length == 0) {
+                    if (savepoint != null) {
+                        connection.rollback(savepoint);
+                        savepoint = connection.setSavepoint();
+                    }
+                    return null;
+                }
+                return call(method, args);
+            default:
+                return call(method, args);
+        }
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
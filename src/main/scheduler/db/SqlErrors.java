@@ -0,0 +1,64 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+
+// Classifies SQLExceptions by SQLState, so callers can react to specific failures portably
+public class SqlErrors {
+    // SQLState class 23: integrity constraint violation (duplicate primary key, foreign key, ...)
+    public static final String INTEGRITY_VIOLATION = "23000";
+
+    // SQLState class 40: the transaction was rolled back, e.g. serialization failure or deadlock victim
+    public static final String SERIALIZATION_FAILURE = "40001";
+    // SQL Server error numbers that arrive without a useful SQLState
+    private static final int SQLSERVER_DEADLOCK_VICTIM = 1205;
+    private static final int SQLSERVER_LOCK_TIMEOUT = 1222;
+
+    private SqlErrors() {
+    }
+
+    // True for failures that say nothing about the statement itself, only that it lost out to a
+    // concurrent transaction: deadlock victims, serialization failures and lock timeouts. The
+    // transaction has been (or must be) rolled back, and running it again may well succeed.
+    public static boolean isTransient(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            String state = current.getSQLState();
+            if (state != null && (state.startsWith("40") || state.equals("HYT00"))) {
+                return true;
+            }
+            int code = current.getErrorCode();
+            if (code == SQLSERVER_DEADLOCK_VICTIM || code == SQLSERVER_LOCK_TIMEOUT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True for failures of the connection rather than of the statement: SQLState class 08, timeouts and
+    // the driver's own transient or recoverable exceptions. Whatever was being run may well succeed
+    // once the database is reachable again.
+    public static boolean isConnectionFailure(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            if (current instanceof SQLTransientException || current instanceof SQLRecoverableException) {
+                return true;
+            }
+            String state = current.getSQLState();
+            if (state != null && state.startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // true for constraint violations such as inserting a username that is already taken
+    public static boolean isIntegrityViolation(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            String state = current.getSQLState();
+            if (state != null && state.startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
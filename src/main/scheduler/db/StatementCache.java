@@ -0,0 +1,275 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the prepared statements of one pooled connection open between borrows, so the same SQL text
+// is parsed (and its plan looked up) once per connection instead of once per command.
+//
+// The pool hands out a proxy of the connection. prepareStatement(sql) and prepareStatement(sql, keys)
+// come from an LRU of at most `capacity` statements; everything else passes straight through. Every
+// statement and result set handed out during a borrow is cleaned up when the connection goes back
+// to the pool: result sets and uncached statements are closed, cached statements have their parameters
+// cleared, any maxRows, fetchSize or queryTimeout the borrower set put back, and go back into the LRU.
+// Callers may still close statements themselves; for cached ones that just returns them early.
+//
+// A connection is only used by its borrower, so nothing here is synchronized.
+class StatementCache implements InvocationHandler {
+
+    // shared by every connection of a pool
+    static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+
+    private final Connection connection;
+    private final Connection proxy;
+    private final Counters counters;
+    private final Map<Key, Cached> statements;
+    // handed out since the connection was borrowed
+    private final List<Cached> checkedOut = new ArrayList<>();
+    private final List<Statement> uncached = new ArrayList<>();
+
+    StatementCache(Connection connection, int capacity, Counters counters) {
+        this.connection = connection;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                // a statement still in use this borrow is closed when it is given back instead
+                if (size() > capacity && !eldest.getValue().inUse) {
+                    counters.evictions.increment();
+                    closeQuietly(eldest.getValue().statement);
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    Connection connection() {
+        return proxy;
+    }
+
+    // called when the connection goes back to the pool
+    void release() {
+        for (Cached cached : checkedOut) {
+            cached.giveBack();
+        }
+        checkedOut.clear();
+        for (Statement statement : uncached) {
+            closeQuietly(statement);
+        }
+        uncached.clear();
+    }
+
+    // called before the physical connection is closed
+    void closeAll() {
+        release();
+        for (Cached cached : statements.values()) {
+            closeQuietly(cached.statement);
+        }
+        statements.clear();
+    }
+
+    @Override
+    public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return target == args[0];
+            case "hashCode":
+                return System.identityHashCode(target);
+            case "toString":
+                return "StatementCache(" + connection + ")";
+            case "prepareStatement":
+                if (args.length == 1) {
+                    return prepare(new Key((String) args[0], Statement.NO_GENERATED_KEYS));
+                }
+                if (args.length == 2 && method.getParameterTypes()[1] == int.class) {
+                    return prepare(new Key((String) args[0], (Integer) args[1]));
+                }
+                return track(call(connection, method, args));
+            case "createStatement":
+            case "prepareCall":
+                return track(call(connection, method, args));
+            default:
+                return call(connection, method, args);
+        }
+    }
+
+    private PreparedStatement prepare(Key key) throws SQLException {
+        Cached cached = statements.get(key);
+        if (cached != null && !cached.inUse) {
+            counters.hits.increment();
+        } else {
+            counters.misses.increment();
+            PreparedStatement statement = key.autoGeneratedKeys == Statement.NO_GENERATED_KEYS
+                    ? connection.prepareStatement(key.sql)
+                    : connection.prepareStatement(key.sql, key.autoGeneratedKeys);
+            if (cached != null) {
+                // the same SQL is still in use earlier in this borrow, don't hand that one out twice
+                uncached.add(statement);
+                return statement;
+            }
+            cached = new Cached(statement);
+            statements.put(key, cached);
+        }
+        cached.inUse = true;
+        checkedOut.add(cached);
+        return cached.handle();
+    }
+
+    private Object track(Object statement) {
+        uncached.add((Statement) statement);
+        return statement;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            // being thrown away anyway
+        }
+    }
+
+    // A cached statement plus the result sets it produced during the current borrow. Callers get a
+    // proxy whose close() hands the statement back instead of closing it.
+    private class Cached implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final List<ResultSet> results = new ArrayList<>();
+        private boolean inUse = false;
+        private PreparedStatement handle = null;
+        // maxRows, fetchSize and queryTimeout as prepared, read the first time a borrower changes one;
+        // the same SQL text is run elsewhere with other limits, so they must not carry over
+        private int[] defaults = null;
+        private boolean tuned = false;
+
+        private Cached(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        private PreparedStatement handle() {
+            if (handle == null) {
+                handle = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, this);
+            }
+            return handle;
+        }
+
+        private void giveBack() {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            for (ResultSet resultSet : results) {
+                closeQuietly(resultSet);
+            }
+            results.clear();
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                if (tuned) {
+                    statement.setMaxRows(defaults[0]);
+                    statement.setFetchSize(defaults[1]);
+                    statement.setQueryTimeout(defaults[2]);
+                    tuned = false;
+                }
+            } catch (SQLException e) {
+                // a statement we cannot reset is no good to the next borrower
+                closeQuietly(statement);
+                Iterator<Cached> it = statements.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next() == this) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return target == args[0];
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "close":
+                    giveBack();
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "getConnection":
+                    return proxy;
+                case "setMaxRows":
+                case "setLargeMaxRows":
+                case "setFetchSize":
+                case "setQueryTimeout":
+                    if (defaults == null) {
+                        defaults = new int[]{statement.getMaxRows(), statement.getFetchSize(),
+                                statement.getQueryTimeout()};
+                    }
+                    tuned = true;
+                    return call(statement, method, args);
+                case "executeQuery":
+                case "getResultSet":
+                case "getGeneratedKeys":
+                    ResultSet resultSet = (ResultSet) call(statement, method, args);
+                    if (resultSet != null) {
+                        results.add(resultSet);
+                    }
+                    return resultSet;
+                default:
+                    return call(statement, method, args);
+            }
+        }
+    }
+
+    private static class Key {
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        private Key(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, autoGeneratedKeys);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A fixed set of locks that keys are hashed onto, so work on the same key is serialized within this
+// process without keeping a lock per key around. Unrelated keys share a stripe now and then; with
+// enough stripes that costs little. Time spent waiting is recorded in Metrics.lockWait.
+public class StripedLocks {
+    private final ReentrantLock[] locks;
+    private final long timeoutMillis;
+
+    // stripes is rounded up to a power of two
+    public StripedLocks(int stripes, long timeoutMillis) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Locks the stripe of the given key parts and returns it for unlocking, or null if the lock could
+    // not be had within the timeout
+    public ReentrantLock lock(Object... key) throws InterruptedException {
+        ReentrantLock lock = locks[spread(Objects.hash(key)) & (locks.length - 1)];
+        if (lock.tryLock()) {
+            Metrics.recordLockWait(0);
+            return lock;
+        }
+        long start = System.nanoTime();
+        boolean locked = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        Metrics.recordLockWait(System.nanoTime() - start);
+        return locked ? lock : null;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,405 @@
+package scheduler.journal;
+
+import scheduler.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// An append-only log on local disk, kept in memory-mapped segment files of a fixed size that are
+// named after the sequence number of their first record (journal-<sequence>.log).
+//
+// Appending copies the record into the mapped segment and returns its sequence number; a sync
+// thread forces whatever was appended since its last pass to disk, so appends that arrive while a
+// force is running share the next one. awaitDurable blocks until a record is on disk.
+//
+// Record layout, big-endian: body length, CRC-32 of the body, then the body itself: sequence number,
+// type, payload. A length of 0 (the zeros a new segment is filled with) ends a segment. Opening the
+// journal reads every segment; the first record that is cut short, fails its checksum or breaks the
+// sequence is where a crash interrupted an append, and it and everything after it is wiped.
+public class Journal {
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    // body length and checksum
+    private static final int HEADER = 8;
+    // sequence number and type
+    private static final int BODY_HEADER = 9;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    // oldest first; records are appended to the last one
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final List<Entry> recovered = new ArrayList<>();
+    private final Thread syncer;
+
+    private long lastSequence;
+    private long durableSequence;
+    // set when a force fails; nothing appended after that is known to be durable
+    private IOException failure = null;
+    private boolean closed = false;
+
+    // Opens the journal in dir, creating it if needed. Sequence numbers continue after the last record
+    // in the journal, and after startAfter, whichever is greater.
+    public Journal(Path dir, int segmentBytes, long startAfter) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        lastSequence = startAfter;
+        recover();
+        lastSequence = Math.max(lastSequence, startAfter);
+        durableSequence = lastSequence;
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(dir, lastSequence + 1, segmentBytes));
+        }
+        this.syncer = new Thread(this::syncLoop, "journal-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    // the records found when the journal was opened, in sequence order
+    public List<Entry> recovered() {
+        return recovered;
+    }
+
+    // Appends a record and returns its sequence number. It is not durable until awaitDurable says so.
+    public long append(byte type, byte[] payload) throws IOException {
+        int bodyLength = BODY_HEADER + payload.length;
+        if (HEADER + bodyLength > segmentBytes) {
+            throw new IOException("Journal record of " + payload.length + " bytes does not fit a segment");
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            if (failure != null) {
+                throw new IOException("Journal is unusable after a failed sync", failure);
+            }
+            Segment segment = segments.peekLast();
+            if (segment.buffer.remaining() < HEADER + bodyLength) {
+                segment = rotate();
+            }
+            long sequence = lastSequence + 1;
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            body.putLong(sequence).put(type).put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            segment.buffer.putInt(bodyLength).putInt((int) crc.getValue()).put(body.array());
+            segment.lastSequence = sequence;
+            lastSequence = sequence;
+            appended.signal();
+            Metrics.count("journal.appends");
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // blocks until the record with this sequence number (and every one before it) is on disk
+    public void awaitDurable(long sequence) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (durableSequence < sequence) {
+                if (failure != null) {
+                    throw new IOException("Journal sync failed", failure);
+                }
+                if (closed && !syncer.isAlive()) {
+                    throw new IOException("Journal is closed");
+                }
+                synced.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long durableSequence() {
+        lock.lock();
+        try {
+            return durableSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Deletes the segments whose records all have a sequence number up to applied; the one being
+    // appended to is kept
+    public void release(long applied) {
+        List<Segment> released = new ArrayList<>();
+        lock.lock();
+        try {
+            while (segments.size() > 1 && segments.peekFirst().lastSequence <= applied) {
+                released.add(segments.pollFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Segment segment : released) {
+            try {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                System.out.println("Could not delete journal segment " + segment.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public int segmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // syncs what was appended, then stops the sync thread; appends fail from here on
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            synced.signalAll();
+            for (Segment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    System.out.println("Could not close journal segment " + segment.path + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            Segment segment;
+            int from;
+            int to;
+            long upTo;
+            lock.lock();
+            try {
+                while (!closed && durableSequence == lastSequence) {
+                    appended.awaitUninterruptibly();
+                }
+                if (durableSequence == lastSequence || failure != null) {
+                    return;
+                }
+                segment = segments.peekLast();
+                from = segment.synced;
+                to = segment.buffer.position();
+                upTo = lastSequence;
+            } finally {
+                lock.unlock();
+            }
+            IOException failed = null;
+            try {
+                // absolute range, so appends can go on while the pages are written out
+                segment.buffer.force(from, to - from);
+                Metrics.count("journal.syncs");
+            } catch (UncheckedIOException e) {
+                failed = e.getCause();
+            }
+            lock.lock();
+            try {
+                if (failed != null) {
+                    failure = failed;
+                    System.out.println("Journal sync failed, reservations stop here: " + failed.getMessage());
+                } else {
+                    segment.synced = Math.max(segment.synced, to);
+                    durableSequence = Math.max(durableSequence, upTo);
+                }
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // called with the lock held; the full segment is forced here, since the sync thread only ever
+    // forces the last one
+    private Segment rotate() throws IOException {
+        Segment full = segments.peekLast();
+        try {
+            full.buffer.force();
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+            throw e.getCause();
+        }
+        full.synced = full.buffer.position();
+        Segment next = Segment.create(dir, lastSequence + 1, segmentBytes);
+        segments.add(next);
+        return next;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // the zero-padded names sort in sequence order
+        files.sort(null);
+        boolean torn = false;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            if (torn) {
+                // written after the point the journal was cut off, so never acknowledged
+                Files.delete(file);
+                continue;
+            }
+            Segment segment = Segment.open(file);
+            int end = scan(segment);
+            if (segment.buffer.capacity() - end >= HEADER && segment.buffer.getInt(end) != 0) {
+                torn = true;
+                System.out.println("Journal " + file + " ends in a torn record, discarded from offset " + end);
+            }
+            if (torn || i == files.size() - 1) {
+                // the segment appended to next must not have leftovers of a torn record after its end
+                wipe(segment, end);
+            }
+            segment.buffer.position(end);
+            segment.synced = end;
+            if (segment.lastSequence == 0) {
+                // nothing in it: a crash right after it was created
+                segment.close();
+                Files.delete(file);
+            } else {
+                segments.add(segment);
+            }
+        }
+    }
+
+    // reads the segment's records into recovered and returns the offset after the last good one
+    private int scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (buffer.capacity() - position >= HEADER) {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength < BODY_HEADER || bodyLength > buffer.capacity() - position - HEADER) {
+                break;
+            }
+            byte[] body = new byte[bodyLength];
+            buffer.get(position + HEADER, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            ByteBuffer fields = ByteBuffer.wrap(body);
+            long sequence = fields.getLong();
+            if (!recovered.isEmpty() && sequence != lastSequence + 1) {
+                break;
+            }
+            byte type = fields.get();
+            byte[] payload = new byte[bodyLength - BODY_HEADER];
+            fields.get(payload);
+            recovered.add(new Entry(sequence, type, payload));
+            segment.lastSequence = sequence;
+            lastSequence = sequence;
+            position += HEADER + bodyLength;
+        }
+        return position;
+    }
+
+    // Zeroes the segment from offset on, so later appends are followed by the end marker again. Only
+    // bytes that are not zero already are written, so a clean segment costs a read of its tail.
+    private static void wipe(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer;
+        boolean changed = false;
+        for (int at = offset; at < buffer.capacity(); at++) {
+            if (buffer.get(at) != 0) {
+                buffer.put(at, (byte) 0);
+                changed = true;
+            }
+        }
+        if (changed) {
+            segment.buffer.force();
+        }
+    }
+
+    public static class Entry {
+        private final long sequence;
+        private final byte type;
+        private final byte[] payload;
+
+        Entry(long sequence, byte type, byte[] payload) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // offset up to which the segment has been forced to disk
+        private int synced = 0;
+        // sequence number of the last record in it, 0 while empty
+        private long lastSequence = 0;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        // mapping past the end of the new file grows it to the full size, filled with zeros
+        static Segment create(Path dir, long firstSequence, int bytes) throws IOException {
+            Path path = dir.resolve(String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes));
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
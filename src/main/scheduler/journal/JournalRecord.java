@@ -0,0 +1,174 @@
+package scheduler.journal;
+
+import scheduler.model.Appointment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// One change acknowledged by the ReservationJournal and not necessarily in the database yet:
+//   RESERVE:   the appointment booked, with the ID it was given
+//   CANCEL:    the appointments cancelled together
+//   ADD_DOSES: dose changes per vaccine; vaccines not stocked yet are created
+//
+// Payloads, big-endian: an appointment is ID, epoch day, vaccine, caregiver, patient; CANCEL is a count
+// followed by appointments, ADD_DOSES a count followed by vaccine and delta pairs. Strings are a short
+// length followed by UTF-8.
+public class JournalRecord {
+
+    public enum Type {
+        RESERVE(1), CANCEL(2), ADD_DOSES(3);
+
+        private final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        static Type of(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown journal record type " + code);
+        }
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final List<Appointment> appointments;
+    private final Map<String, Integer> doses;
+
+    private JournalRecord(long sequence, Type type, List<Appointment> appointments, Map<String, Integer> doses) {
+        this.sequence = sequence;
+        this.type = type;
+        this.appointments = appointments;
+        this.doses = doses;
+    }
+
+    static JournalRecord reserve(Appointment appointment) {
+        return new JournalRecord(0, Type.RESERVE, Collections.singletonList(appointment), Collections.emptyMap());
+    }
+
+    static JournalRecord cancel(List<Appointment> cancelled) {
+        return new JournalRecord(0, Type.CANCEL, cancelled, Collections.emptyMap());
+    }
+
+    static JournalRecord addDoses(Map<String, Integer> deltas) {
+        return new JournalRecord(0, Type.ADD_DOSES, Collections.emptyList(), deltas);
+    }
+
+    JournalRecord withSequence(long assigned) {
+        return new JournalRecord(assigned, type, appointments, doses);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // the booked appointment for RESERVE, the cancelled ones for CANCEL, empty for ADD_DOSES
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+
+    // empty unless ADD_DOSES
+    public Map<String, Integer> getDoses() {
+        return doses;
+    }
+
+    byte typeCode() {
+        return type.code;
+    }
+
+    byte[] payload() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            switch (type) {
+                case RESERVE:
+                    writeAppointment(out, appointments.get(0));
+                    break;
+                case CANCEL:
+                    out.writeInt(appointments.size());
+                    for (Appointment appointment : appointments) {
+                        writeAppointment(out, appointment);
+                    }
+                    break;
+                default:
+                    out.writeInt(doses.size());
+                    for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                        writeString(out, entry.getKey());
+                        out.writeInt(entry.getValue());
+                    }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static JournalRecord decode(Journal.Entry entry) {
+        Type type = Type.of(entry.getType());
+        ByteBuffer in = ByteBuffer.wrap(entry.getPayload());
+        switch (type) {
+            case RESERVE:
+                return new JournalRecord(entry.getSequence(), type, Collections.singletonList(readAppointment(in)),
+                        Collections.emptyMap());
+            case CANCEL:
+                int count = in.getInt();
+                List<Appointment> cancelled = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    cancelled.add(readAppointment(in));
+                }
+                return new JournalRecord(entry.getSequence(), type, cancelled, Collections.emptyMap());
+            default:
+                int vaccines = in.getInt();
+                Map<String, Integer> deltas = new LinkedHashMap<>();
+                for (int i = 0; i < vaccines; i++) {
+                    deltas.put(readString(in), in.getInt());
+                }
+                return new JournalRecord(entry.getSequence(), type, Collections.emptyList(), deltas);
+        }
+    }
+
+    private static void writeAppointment(DataOutputStream out, Appointment appointment) throws IOException {
+        out.writeInt(appointment.getId());
+        out.writeInt((int) appointment.getTime().toLocalDate().toEpochDay());
+        writeString(out, appointment.getVaccineName());
+        writeString(out, appointment.getCaregiverName());
+        writeString(out, appointment.getPatientName());
+    }
+
+    private static Appointment readAppointment(ByteBuffer in) {
+        int id = in.getInt();
+        Date time = Date.valueOf(LocalDate.ofEpochDay(in.getInt()));
+        return new Appointment.AppointmentBuilder(id, time, readString(in), readString(in), readString(in)).build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package scheduler.journal;
+
+import scheduler.model.Appointment;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.AppointmentRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Reservations and cancellations go to the ReservationJournal; reads go to the database once the
+// user's journaled changes have reached it
+public class JournaledAppointmentRepository implements AppointmentRepository {
+    private final AppointmentRepository delegate;
+    private final ReservationJournal journal;
+
+    public JournaledAppointmentRepository(AppointmentRepository delegate, ReservationJournal journal) {
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException {
+        return journal.reserve(d, vaccineName, patientName);
+    }
+
+    @Override
+    public List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        journal.awaitApplied(username);
+        journal.cancelLock().lock();
+        try {
+            // only the rows asked for, not the user's whole history, while other cancels wait
+            return journal.cancel(delegate.findByIds(ids, username, caregiver));
+        } finally {
+            journal.cancelLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelByCaregiver(String caregiverName, Date d) throws SQLException {
+        journal.awaitApplied(caregiverName);
+        journal.cancelLock().lock();
+        try {
+            return journal.cancel(delegate.findByCaregiverOn(caregiverName, d));
+        } finally {
+            journal.cancelLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientName) throws SQLException {
+        journal.awaitApplied(patientName);
+        return delegate.findByPatient(patientName);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverName) throws SQLException {
+        journal.awaitApplied(caregiverName);
+        return delegate.findByCaregiver(caregiverName);
+    }
+
+    @Override
+    public List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        journal.awaitApplied(username);
+        return delegate.findByIds(ids, username, caregiver);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiverOn(String caregiverName, Date d) throws SQLException {
+        journal.awaitApplied(caregiverName);
+        return delegate.findByCaregiverOn(caregiverName, d);
+    }
+
+    @Override
+    public int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        journal.awaitApplied(patientName);
+        return delegate.streamByPatient(patientName, query, action);
+    }
+
+    @Override
+    public int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        journal.awaitApplied(caregiverName);
+        return delegate.streamByCaregiver(caregiverName, query, action);
+    }
+}
@@ -0,0 +1,61 @@
+package scheduler.journal;
+
+import scheduler.model.Vaccine;
+import scheduler.repository.VaccineRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Serves dose counts from the ReservationJournal's counters and journals every change to them,
+// new vaccines and bulk imports included
+public class JournaledVaccineRepository implements VaccineRepository {
+    private final VaccineRepository delegate;
+    private final ReservationJournal journal;
+
+    public JournaledVaccineRepository(VaccineRepository delegate, ReservationJournal journal) {
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        journal.createVaccine(vaccine.getVaccineName(), vaccine.getAvailableDoses());
+    }
+
+    @Override
+    public Vaccine find(String vaccineName) throws SQLException {
+        Integer doses = journal.doses(vaccineName);
+        return doses == null ? null : new Vaccine.VaccineBuilder(vaccineName, doses).build();
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : journal.snapshot().entrySet()) {
+            vaccines.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue()).build());
+        }
+        return vaccines;
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int delta) throws SQLException {
+        journal.addDosesIfStocked(vaccineName, delta);
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> deltas) throws SQLException {
+        journal.addDoses(deltas);
+    }
+
+    @Override
+    public boolean applyDeltas(Map<String, Integer> deltas, String node, long sequence) throws SQLException {
+        return delegate.applyDeltas(deltas, node, sequence);
+    }
+
+    @Override
+    public long lastAppliedSequence(String node) throws SQLException {
+        return delegate.lastAppliedSequence(node);
+    }
+}
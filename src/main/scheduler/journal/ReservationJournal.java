@@ -0,0 +1,584 @@
+package scheduler.journal;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlErrors;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.model.Vaccine;
+import scheduler.repository.CaregiverSelector;
+import scheduler.repository.VaccineRepository;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Write-ahead journal mode: reserve, cancel and add_doses are decided in memory, appended to a local
+// Journal and acknowledged once the record is on disk; a flusher thread writes the records to
+// Appointments, Availabilities and Vaccines behind, in order, in batches of up to batchSize.
+//
+// Decisions come from the AvailabilityIndex (who is free) and from dose counters loaded from Vaccines
+// at startup, and appointment IDs are handed out here, continuing after the highest one in the
+// database or the journal. So, like the inventory cache, this assumes a single scheduler node changes
+// appointments and inventory, and everything else it writes must go through it.
+//
+// Every batch commits together with the sequence number of its last record (see Sink.apply), so a
+// batch retried after a failure, or replayed from the journal after a crash, is applied at most once.
+// At startup the records the database has not seen yet are applied before anything reads the tables.
+//
+// A batch the database keeps rejecting for what is in it (a constraint violation, say, rather than a
+// lost connection) is applied one record at a time after FAILURES_BEFORE_SPLIT tries, and a record that
+// still fails RECORD_ATTEMPTS times on its own is quarantined: written to quarantine.log in the journal
+// directory, skipped in the database and undone in memory, so the records after it can go on.
+//
+// A user's reads wait until their own journaled changes are in the database. Journaled changes made
+// inside a shared transaction are durable as soon as they are acknowledged, the transaction rolling
+// back does not undo them.
+public class ReservationJournal {
+
+    // writes journal records to the database
+    public interface Sink {
+        // the sequence number recorded with the last batch applied, 0 if none
+        long lastApplied() throws SQLException;
+
+        // the highest appointment ID in the database, 0 if there are none
+        int maxAppointmentId() throws SQLException;
+
+        // Applies the records, in order, in one transaction that also records the last one's sequence
+        // number; records at or below the sequence number already recorded are skipped
+        void apply(List<JournalRecord> records) throws SQLException;
+
+        // records sequence as applied without applying anything, to get past a quarantined record
+        void skip(long sequence) throws SQLException;
+    }
+
+    // failures of a batch, blamed on its records, before they are applied one by one
+    private static final int FAILURES_BEFORE_SPLIT = 3;
+    // failures of a record on its own before it is quarantined
+    private static final int RECORD_ATTEMPTS = 3;
+    // how many free caregivers a reservation reads from the index, for the CaregiverSelector to order
+    private static final int CLAIM_CANDIDATES = 32;
+
+    private final Journal journal;
+    private final Path quarantine;
+    private final Sink sink;
+    private final int batchSize;
+    private final int maxUnapplied;
+    private final long readWaitMillis;
+
+    private AvailabilityIndex index;
+    private CaregiverSelector selector;
+    private final Map<String, AtomicInteger> doses = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    // durable or not yet, in sequence order; removed once applied
+    private final ConcurrentSkipListMap<Long, JournalRecord> unapplied = new ConcurrentSkipListMap<>();
+    // patient or caregiver -> the sequence number of the last unapplied record they are in
+    private final Map<String, Long> pendingByName = new ConcurrentHashMap<>();
+    // appointments with an unapplied CANCEL record: added under cancelLock, removed once the
+    // cancellation is in the database
+    private final Set<Integer> cancelling = ConcurrentHashMap.newKeySet();
+    // one cancel at a time between reading the appointments and journaling their cancellation
+    private final ReentrantLock cancelLock = new ReentrantLock();
+    private final Object progress = new Object();
+    private Thread flusher;
+
+    private volatile long appended;
+    private volatile long applied;
+    // when the last batch committed, for reads that go to the replica
+    private volatile long appliedAt = 0;
+    private volatile boolean closing = false;
+
+    // Opens the journal and applies whatever in it the database has not seen yet
+    public ReservationJournal(Sink sink, Path dir, int segmentBytes, int batchSize, int maxUnapplied,
+                              long readWaitMillis) throws SQLException {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.maxUnapplied = maxUnapplied;
+        this.readWaitMillis = readWaitMillis;
+        this.applied = sink.lastApplied();
+        this.quarantine = dir.resolve("quarantine.log");
+        try {
+            this.journal = new Journal(dir, segmentBytes, applied);
+        } catch (IOException e) {
+            throw new SQLException("Could not open journal " + dir, e);
+        }
+        int maxId = sink.maxAppointmentId();
+        List<JournalRecord> replay = new ArrayList<>();
+        for (Journal.Entry entry : journal.recovered()) {
+            JournalRecord record = JournalRecord.decode(entry);
+            for (Appointment appointment : record.getAppointments()) {
+                maxId = Math.max(maxId, appointment.getId());
+            }
+            if (record.getSequence() > applied) {
+                replay.add(record);
+            }
+        }
+        nextId.set(maxId + 1);
+        for (int from = 0; from < replay.size(); from += batchSize) {
+            List<JournalRecord> batch = replay.subList(from, Math.min(replay.size(), from + batchSize));
+            try {
+                sink.apply(batch);
+            } catch (SQLException | RuntimeException e) {
+                // nothing waits for these, so there is no point retrying the batch first
+                if (!blamesRecords(e) || !applyOneByOne(batch)) {
+                    throw e;
+                }
+            }
+            applied = batch.get(batch.size() - 1).getSequence();
+        }
+        if (!replay.isEmpty()) {
+            System.out.println("Replayed " + replay.size() + " journal records from " + dir);
+        }
+        appended = applied;
+        journal.release(applied);
+    }
+
+    // null unless Journal=on; reads JournalDir, JournalSegmentBytes, JournalFlushBatch,
+    // JournalMaxUnapplied and JournalReadWaitMs
+    public static ReservationJournal fromEnvironment(Sink sink) throws SQLException {
+        if (!"on".equalsIgnoreCase(System.getenv("Journal"))) {
+            return null;
+        }
+        String dir = System.getenv("JournalDir");
+        return new ReservationJournal(sink, Paths.get(dir == null || dir.isBlank() ? "journal" : dir.trim()),
+                Util.intEnv("JournalSegmentBytes", 16 << 20), Util.intEnv("JournalFlushBatch", 500),
+                Util.intEnv("JournalMaxUnapplied", 100_000), Util.intEnv("JournalReadWaitMs", 5000));
+    }
+
+    // Starts serving from the index and the dose counts, both as of after the replay, and starts the flusher
+    public void start(AvailabilityIndex availability, VaccineRepository vaccineTable, CaregiverSelector selector)
+            throws SQLException {
+        this.index = availability;
+        this.selector = selector;
+        for (Vaccine vaccine : vaccineTable.findAll()) {
+            doses.put(vaccine.getVaccineName(), new AtomicInteger(vaccine.getAvailableDoses()));
+        }
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Claims a caregiver free on d and a dose, and journals the appointment
+    public Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException {
+        if (appended - applied >= maxUnapplied) {
+            // the database is not keeping up; better to say so than to grow the journal without bound
+            throw new IllegalStateException("Server busy, please try again!");
+        }
+        String caregiver = claimCaregiver(d);
+        if (caregiver == null) {
+            throw new IllegalStateException("No available caregivers for this date!");
+        }
+        AtomicInteger stock = doses.get(vaccineName);
+        if (stock == null || !takeDose(stock)) {
+            index.add(d, caregiver);
+            throw new IllegalStateException(stock == null ? "Our vaccine storage does not have this vaccine!"
+                    : "No available doses for this vaccine!");
+        }
+        Appointment appointment = new Appointment.AppointmentBuilder(nextId.getAndIncrement(), d, vaccineName,
+                caregiver, patientName).build();
+        long sequence;
+        try {
+            sequence = append(JournalRecord.reserve(appointment));
+        } catch (SQLException e) {
+            index.add(d, caregiver);
+            stock.incrementAndGet();
+            throw e;
+        }
+        awaitDurable(sequence);
+        selector.booked(d, caregiver);
+        return appointment;
+    }
+
+    // Journals the cancellation of those of found (read from the database by the caller, under
+    // lockCancels) that are not being cancelled already, and returns them
+    public List<Appointment> cancel(List<Appointment> found) throws SQLException {
+        List<Appointment> cancelled = new ArrayList<>();
+        for (Appointment appointment : found) {
+            if (!cancelling.contains(appointment.getId())) {
+                cancelled.add(appointment);
+            }
+        }
+        if (cancelled.isEmpty()) {
+            return cancelled;
+        }
+        long sequence = append(JournalRecord.cancel(cancelled));
+        for (Appointment appointment : cancelled) {
+            cancelling.add(appointment.getId());
+            index.add(appointment.getTime(), appointment.getCaregiverName());
+            AtomicInteger stock = doses.get(appointment.getVaccineName());
+            if (stock != null) {
+                stock.incrementAndGet();
+            }
+        }
+        awaitDurable(sequence);
+        for (Appointment appointment : cancelled) {
+            selector.cancelled(appointment.getTime(), appointment.getCaregiverName());
+        }
+        return cancelled;
+    }
+
+    // Held from reading the appointments to cancel until cancel() returns, so two cancels of the same
+    // appointment cannot both read it before either is journaled
+    public ReentrantLock cancelLock() {
+        return cancelLock;
+    }
+
+    // Journals dose changes, creating the vaccines that are not stocked yet
+    public void addDoses(Map<String, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        long sequence;
+        // vaccines are created under the same lock as the appends, see createVaccine
+        synchronized (this) {
+            sequence = append(JournalRecord.addDoses(new HashMap<>(deltas)));
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                doses.computeIfAbsent(entry.getKey(), name -> new AtomicInteger()).addAndGet(entry.getValue());
+            }
+        }
+        awaitDurable(sequence);
+    }
+
+    // Journals a new vaccine; like the primary key would, fails if it is stocked already. The check,
+    // the append and the new counter share the append lock, so two creates cannot both pass the check.
+    public void createVaccine(String vaccineName, int available) throws SQLException {
+        long sequence;
+        synchronized (this) {
+            if (doses.containsKey(vaccineName)) {
+                throw new SQLException("Vaccine " + vaccineName + " already exists");
+            }
+            sequence = append(JournalRecord.addDoses(Collections.singletonMap(vaccineName, available)));
+            doses.put(vaccineName, new AtomicInteger(available));
+        }
+        awaitDurable(sequence);
+    }
+
+    // Journals a dose change to a stocked vaccine; like the UPDATE it stands for, leaves a vaccine that
+    // is not stocked alone, and then returns false
+    public boolean addDosesIfStocked(String vaccineName, int delta) throws SQLException {
+        long sequence;
+        synchronized (this) {
+            AtomicInteger stock = doses.get(vaccineName);
+            if (stock == null) {
+                return false;
+            }
+            sequence = append(JournalRecord.addDoses(Collections.singletonMap(vaccineName, delta)));
+            stock.addAndGet(delta);
+        }
+        awaitDurable(sequence);
+        return true;
+    }
+
+    // returns null for vaccines that are not stocked
+    public Integer doses(String vaccineName) {
+        AtomicInteger stock = doses.get(vaccineName);
+        return stock == null ? null : stock.get();
+    }
+
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : doses.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    // Blocks until every journaled change username is in has reached the database, then makes the
+    // rest of a read-only command wait for a replica that has caught up with it
+    public void awaitApplied(String username) throws SQLException {
+        Long sequence = pendingByName.get(username);
+        if (sequence != null) {
+            long deadline = System.currentTimeMillis() + readWaitMillis;
+            synchronized (progress) {
+                while (applied < sequence) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        Metrics.count("journal.read_timeouts");
+                        throw new IllegalStateException("Server busy, please try again!");
+                    }
+                    try {
+                        progress.wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for the journal", e);
+                    }
+                }
+            }
+        }
+        ConnectionManager.readNotBefore(appliedAt);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("journal: %d unapplied, durable up to %d, applied up to %d, %d segments",
+                unapplied.size(), journal.durableSequence(), applied, journal.segmentCount());
+    }
+
+    // Writes everything journaled so far to the database (giving up after the read wait if it cannot),
+    // then closes the journal
+    public void close() {
+        closing = true;
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join(readWaitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (flusher.isAlive()) {
+                System.out.println("Journal not fully flushed, " + unapplied.size() +
+                        " records are applied at the next start");
+                flusher.interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    // Tries the caregivers free on d in the selector's order, like a reservation in the database does;
+    // a caregiver another reservation removed in the meantime is skipped
+    private String claimCaregiver(Date d) {
+        while (true) {
+            List<String> candidates = index.caregivers(d, CLAIM_CANDIDATES);
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            for (String candidate : selector.order(d, candidates)) {
+                if (index.remove(d, candidate)) {
+                    return candidate;
+                }
+            }
+        }
+    }
+
+    private static boolean takeDose(AtomicInteger stock) {
+        int current;
+        do {
+            current = stock.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!stock.compareAndSet(current, current - 1));
+        return true;
+    }
+
+    // appends and queues the record for the flusher; synchronized so records are queued in sequence order
+    private synchronized long append(JournalRecord record) throws SQLException {
+        long sequence;
+        try {
+            sequence = journal.append(record.typeCode(), record.payload());
+        } catch (IOException e) {
+            throw new SQLException("Could not write the journal", e);
+        }
+        unapplied.put(sequence, record.withSequence(sequence));
+        appended = sequence;
+        for (Appointment appointment : record.getAppointments()) {
+            pendingByName.put(appointment.getPatientName(), sequence);
+            pendingByName.put(appointment.getCaregiverName(), sequence);
+        }
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+        return sequence;
+    }
+
+    private void awaitDurable(long sequence) throws SQLException {
+        try {
+            journal.awaitDurable(sequence);
+        } catch (IOException e) {
+            // the record may or may not be on disk, like a commit whose acknowledgement was lost
+            throw new SQLException("Could not sync the journal", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the journal", e);
+        }
+    }
+
+    private void flushLoop() {
+        long backoff = 0;
+        int failures = 0;
+        while (true) {
+            Map.Entry<Long, JournalRecord> first = unapplied.firstEntry();
+            if (first == null) {
+                if (closing) {
+                    return;
+                }
+                synchronized (progress) {
+                    if (unapplied.isEmpty() && !closing) {
+                        try {
+                            progress.wait(100);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                continue;
+            }
+            try {
+                journal.awaitDurable(first.getKey());
+            } catch (IOException e) {
+                System.out.println("Journal flusher stopped: " + e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+            // records appended since are in the batch too if they are durable already
+            long durable = journal.durableSequence();
+            List<JournalRecord> batch = new ArrayList<>();
+            for (JournalRecord record : unapplied.headMap(durable, true).values()) {
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    break;
+                }
+            }
+            try {
+                sink.apply(batch);
+                backoff = 0;
+                failures = 0;
+            } catch (SQLException | RuntimeException e) {
+                Metrics.count("journal.flush_failures");
+                if (backoff == 0) {
+                    System.out.println("Journal flush failed, will retry: " + e.getMessage());
+                }
+                if (blamesRecords(e) && ++failures >= FAILURES_BEFORE_SPLIT) {
+                    failures = 0;
+                    if (applyOneByOne(batch)) {
+                        backoff = 0;
+                        continue;
+                    }
+                }
+                backoff = Math.min(5000, Math.max(50, backoff * 2));
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            applied(batch);
+        }
+    }
+
+    // Applies the batch a record at a time, quarantining the records that keep failing on their own.
+    // Returns false, leaving the rest for later, as soon as a failure looks like the database's.
+    private boolean applyOneByOne(List<JournalRecord> batch) {
+        for (JournalRecord record : batch) {
+            List<JournalRecord> single = Collections.singletonList(record);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    sink.apply(single);
+                    break;
+                } catch (SQLException | RuntimeException e) {
+                    if (!blamesRecords(e)) {
+                        return false;
+                    }
+                    if (attempt == RECORD_ATTEMPTS) {
+                        if (!quarantine(record, e)) {
+                            return false;
+                        }
+                        break;
+                    }
+                }
+            }
+            applied(single);
+        }
+        return true;
+    }
+
+    // Failures that say something about the records, as opposed to the database being unreachable or
+    // busy. One without an SQLState cannot tell, and is retried as a batch like a lost connection.
+    private static boolean blamesRecords(Exception e) {
+        if (!(e instanceof SQLException)) {
+            return true;
+        }
+        SQLException failure = (SQLException) e;
+        return failure.getSQLState() != null && !SqlErrors.isTransient(failure)
+                && !SqlErrors.isConnectionFailure(failure);
+    }
+
+    // Keeps the record in quarantine.log, moves the database past it and undoes it in memory, where it
+    // had already been applied when it was acknowledged. False if it could not be written down or skipped.
+    private boolean quarantine(JournalRecord record, Exception failure) {
+        String line = record.getSequence() + " " + record.getType() + " "
+                + (record.getType() == JournalRecord.Type.ADD_DOSES ? record.getDoses() : record.getAppointments())
+                + " failed: " + failure + System.lineSeparator();
+        try {
+            Files.write(quarantine, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            sink.skip(record.getSequence());
+        } catch (IOException | SQLException e) {
+            System.out.println("Could not quarantine journal record " + record.getSequence() + ": " + e.getMessage());
+            return false;
+        }
+        Metrics.count("journal.quarantined");
+        System.out.println("Quarantined journal record " + line.strip() + " (see " + quarantine + ")");
+        if (index == null) {
+            // replayed at startup; the counters and the index are loaded from the tables afterwards
+            return true;
+        }
+        switch (record.getType()) {
+            case RESERVE:
+                for (Appointment appointment : record.getAppointments()) {
+                    index.add(appointment.getTime(), appointment.getCaregiverName());
+                    adjustDoses(appointment.getVaccineName(), 1);
+                }
+                break;
+            case CANCEL:
+                for (Appointment appointment : record.getAppointments()) {
+                    index.remove(appointment.getTime(), appointment.getCaregiverName());
+                    adjustDoses(appointment.getVaccineName(), -1);
+                }
+                break;
+            default:
+                for (Map.Entry<String, Integer> entry : record.getDoses().entrySet()) {
+                    adjustDoses(entry.getKey(), -entry.getValue());
+                }
+        }
+        return true;
+    }
+
+    private void adjustDoses(String vaccineName, int delta) {
+        AtomicInteger stock = doses.get(vaccineName);
+        if (stock != null) {
+            stock.addAndGet(delta);
+        }
+    }
+
+    private void applied(List<JournalRecord> batch) {
+        appliedAt = System.currentTimeMillis();
+        long last = batch.get(batch.size() - 1).getSequence();
+        for (JournalRecord record : batch) {
+            unapplied.remove(record.getSequence());
+            for (Appointment appointment : record.getAppointments()) {
+                pendingByName.remove(appointment.getPatientName(), record.getSequence());
+                pendingByName.remove(appointment.getCaregiverName(), record.getSequence());
+                if (record.getType() == JournalRecord.Type.CANCEL) {
+                    cancelling.remove(appointment.getId());
+                }
+            }
+        }
+        Metrics.count("journal.flushes");
+        synchronized (progress) {
+            applied = last;
+            progress.notifyAll();
+        }
+        journal.release(last);
+    }
+}
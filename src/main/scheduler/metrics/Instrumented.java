@@ -0,0 +1,41 @@
+package scheduler.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+// Wraps any interface implementation so that every call is timed into Metrics as "<name>.<method>",
+// and counted as an error if it throws anything but the IllegalStateException that repositories use
+// for business refusals (no caregivers, no doses)
+public class Instrumented implements InvocationHandler {
+    private final Object target;
+    private final String name;
+
+    private Instrumented(Object target, String name) {
+        this.target = target;
+        this.name = name;
+    }
+
+    public static <T> T wrap(Class<T> type, T target, String name) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                new Instrumented(target, name)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(target, args);
+        }
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            failed = !(e.getCause() instanceof IllegalStateException);
+            throw e.getCause();
+        } finally {
+            Metrics.recordCall(name + "." + method.getName(), System.nanoTime() - start, failed);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package scheduler.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Where the time goes, process wide:
+//   command.*  every Scheduler command: latency, failures, and per command how many statements it
+//              sent, how long they took and how long it waited for a pooled connection
+//   db.*       every repository call (Repositories wraps them), i.e. what the model classes ask of the database
+//   statement  every statement execution, commit and rollback on a pooled connection
+//   pool.wait  time spent in ConnectionPool.borrow
+//   lock.wait  time spent waiting for an in-process lock (StripedLocks)
+//   counters   plain event counts, such as retries
+// Everything is LongAdders and LatencyHistograms, so recording never blocks. The per-command figures
+// are collected in a thread-local scope between startCommand and CommandScope.close.
+public class Metrics {
+
+    private static final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+    private static final Map<String, CallStats> calls = new ConcurrentHashMap<>();
+    private static final CallStats statements = new CallStats();
+    private static final LatencyHistogram poolWait = new LatencyHistogram();
+    private static final LatencyHistogram lockWait = new LatencyHistogram();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ThreadLocal<CommandScope> current = new ThreadLocal<>();
+    private static final AtomicLong commandIds = new AtomicLong();
+
+    private Metrics() {
+    }
+
+    // Opens the scope of one command on this thread; close it (try-with-resources) when the command is done
+    public static CommandScope startCommand(String name) {
+        CommandScope scope = new CommandScope(name, commandIds.incrementAndGet(),
+                commands.computeIfAbsent(name, key -> new CommandStats()));
+        current.set(scope);
+        return scope;
+    }
+
+    // the command running on this thread ran into an exception
+    public static void commandFailed() {
+        CommandScope scope = current.get();
+        if (scope != null) {
+            scope.failed = true;
+        }
+    }
+
+    // "reserve#1832": the command running on this thread and its number since startup, null outside commands
+    public static String currentCommand() {
+        CommandScope scope = current.get();
+        return scope == null ? null : scope.name + "#" + scope.id;
+    }
+
+    public static void recordCall(String name, long nanos, boolean failed) {
+        calls.computeIfAbsent(name, key -> new CallStats()).record(nanos, failed);
+    }
+
+    public static void recordStatement(long nanos, boolean failed) {
+        statements.record(nanos, failed);
+        CommandScope scope = current.get();
+        if (scope != null) {
+            scope.roundTrips++;
+            scope.dbNanos += nanos;
+        }
+    }
+
+    public static void recordPoolWait(long nanos) {
+        poolWait.record(nanos);
+        CommandScope scope = current.get();
+        if (scope != null) {
+            scope.poolWaitNanos += nanos;
+        }
+    }
+
+    public static void recordLockWait(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    public static void count(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    public static Map<String, CommandStats> commands() {
+        return new TreeMap<>(commands);
+    }
+
+    public static Map<String, CallStats> calls() {
+        return new TreeMap<>(calls);
+    }
+
+    public static CallStats statements() {
+        return statements;
+    }
+
+    public static LatencyHistogram poolWait() {
+        return poolWait;
+    }
+
+    public static LatencyHistogram lockWait() {
+        return lockWait;
+    }
+
+    public static Map<String, Long> counters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    public static void reset() {
+        commands.clear();
+        calls.clear();
+        statements.reset();
+        poolWait.reset();
+        lockWait.reset();
+        counters.clear();
+    }
+
+    // the tables the stats command prints
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-32s %8s %7s %9s %9s %9s %8s %9s %9s%n", "command", "count", "errors",
+                "p50 ms", "p99 ms", "max ms", "stmts", "db ms", "wait ms"));
+        for (Map.Entry<String, CommandStats> entry : commands().entrySet()) {
+            CommandStats s = entry.getValue();
+            long count = Math.max(1, s.latency.getCount());
+            report.append(String.format("%-32s %8d %7d %9.2f %9.2f %9.2f %8.1f %9.2f %9.2f%n", entry.getKey(),
+                    s.latency.getCount(), s.errors.sum(), millis(s.latency.percentileNanos(0.5)),
+                    millis(s.latency.percentileNanos(0.99)), millis(s.latency.getMaxNanos()),
+                    (double) s.roundTrips.sum() / count, millis(s.dbNanos.sum()) / count,
+                    millis(s.poolWaitNanos.sum()) / count));
+        }
+        report.append(String.format("%n%-32s %8s %7s %9s %9s %9s%n", "database call", "count", "errors",
+                "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, CallStats> entry : calls().entrySet()) {
+            appendCall(report, entry.getKey(), entry.getValue());
+        }
+        appendCall(report, "(statement round trips)", statements);
+        appendWait(report, "(connection acquire)", poolWait);
+        appendWait(report, "(lock wait)", lockWait);
+        Map<String, Long> counts = counters();
+        if (!counts.isEmpty()) {
+            report.append(String.format("%n%-32s %8s%n", "counter", "count"));
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                report.append(String.format("%-32s %8d%n", entry.getKey(), entry.getValue()));
+            }
+        }
+        return report.toString();
+    }
+
+    // makes the figures readable over JMX as scheduler:type=Metrics; harmless to call twice
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("scheduler:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new SchedulerMetrics(), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void appendCall(StringBuilder report, String name, CallStats s) {
+        report.append(String.format("%-32s %8d %7d %9.2f %9.2f %9.2f%n", name, s.latency.getCount(), s.errors.sum(),
+                millis(s.latency.percentileNanos(0.5)), millis(s.latency.percentileNanos(0.99)),
+                millis(s.latency.getMaxNanos())));
+    }
+
+    private static void appendWait(StringBuilder report, String name, LatencyHistogram wait) {
+        report.append(String.format("%-32s %8d %7s %9.2f %9.2f %9.2f%n", name, wait.getCount(), "",
+                millis(wait.percentileNanos(0.5)), millis(wait.percentileNanos(0.99)), millis(wait.getMaxNanos())));
+    }
+
+    public static class CommandStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder roundTrips = new LongAdder();
+        final LongAdder dbNanos = new LongAdder();
+        final LongAdder poolWaitNanos = new LongAdder();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRoundTrips() {
+            return roundTrips.sum();
+        }
+    }
+
+    public static class CallStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        void record(long nanos, boolean failed) {
+            latency.record(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        void reset() {
+            latency.reset();
+            errors.reset();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+
+    // One command on one thread. Plain fields: only the owning thread touches them until close().
+    public static class CommandScope implements AutoCloseable {
+        private final String name;
+        private final long id;
+        private final CommandStats stats;
+        private final long start = System.nanoTime();
+        private boolean failed = false;
+        private long roundTrips = 0;
+        private long dbNanos = 0;
+        private long poolWaitNanos = 0;
+
+        private CommandScope(String name, long id, CommandStats stats) {
+            this.name = name;
+            this.id = id;
+            this.stats = stats;
+        }
+
+        @Override
+        public void close() {
+            stats.latency.record(System.nanoTime() - start);
+            if (failed) {
+                stats.errors.increment();
+            }
+            stats.roundTrips.add(roundTrips);
+            stats.dbNanos.add(dbNanos);
+            stats.poolWaitNanos.add(poolWaitNanos);
+            current.remove();
+        }
+    }
+}
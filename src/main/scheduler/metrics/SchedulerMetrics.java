@@ -0,0 +1,91 @@
+package scheduler.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+class SchedulerMetrics implements SchedulerMetricsMXBean {
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        return collect(Metrics.commands(), s -> s.getLatency().getCount());
+    }
+
+    @Override
+    public Map<String, Long> getCommandErrors() {
+        return collect(Metrics.commands(), Metrics.CommandStats::getErrors);
+    }
+
+    @Override
+    public Map<String, Double> getCommandP50Millis() {
+        return collect(Metrics.commands(), s -> Metrics.millis(s.getLatency().percentileNanos(0.5)));
+    }
+
+    @Override
+    public Map<String, Double> getCommandP99Millis() {
+        return collect(Metrics.commands(), s -> Metrics.millis(s.getLatency().percentileNanos(0.99)));
+    }
+
+    @Override
+    public Map<String, Double> getCommandRoundTrips() {
+        return collect(Metrics.commands(), s -> (double) s.getRoundTrips() / Math.max(1, s.getLatency().getCount()));
+    }
+
+    @Override
+    public Map<String, Long> getDatabaseCallCounts() {
+        return collect(Metrics.calls(), s -> s.getLatency().getCount());
+    }
+
+    @Override
+    public Map<String, Double> getDatabaseCallP99Millis() {
+        return collect(Metrics.calls(), s -> Metrics.millis(s.getLatency().percentileNanos(0.99)));
+    }
+
+    @Override
+    public long getStatementCount() {
+        return Metrics.statements().getLatency().getCount();
+    }
+
+    @Override
+    public long getStatementErrors() {
+        return Metrics.statements().getErrors();
+    }
+
+    @Override
+    public double getStatementP99Millis() {
+        return Metrics.millis(Metrics.statements().getLatency().percentileNanos(0.99));
+    }
+
+    @Override
+    public double getConnectionAcquireP99Millis() {
+        return Metrics.millis(Metrics.poolWait().percentileNanos(0.99));
+    }
+
+    @Override
+    public double getLockWaitP99Millis() {
+        return Metrics.millis(Metrics.lockWait().percentileNanos(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return Metrics.counters();
+    }
+
+    @Override
+    public String getReport() {
+        return Metrics.report();
+    }
+
+    @Override
+    public void reset() {
+        Metrics.reset();
+    }
+
+    private static <S, V> Map<String, V> collect(Map<String, S> stats, Function<S, V> value) {
+        Map<String, V> values = new TreeMap<>();
+        for (Map.Entry<String, S> entry : stats.entrySet()) {
+            values.put(entry.getKey(), value.apply(entry.getValue()));
+        }
+        return values;
+    }
+}
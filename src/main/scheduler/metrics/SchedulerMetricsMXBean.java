@@ -0,0 +1,39 @@
+package scheduler.metrics;
+
+import java.util.Map;
+
+// What Metrics exposes over JMX (jconsole, VisualVM, any JMX scraper); maps are keyed by command or call name
+public interface SchedulerMetricsMXBean {
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandErrors();
+
+    Map<String, Double> getCommandP50Millis();
+
+    Map<String, Double> getCommandP99Millis();
+
+    // statements sent per command, on average
+    Map<String, Double> getCommandRoundTrips();
+
+    Map<String, Long> getDatabaseCallCounts();
+
+    Map<String, Double> getDatabaseCallP99Millis();
+
+    long getStatementCount();
+
+    long getStatementErrors();
+
+    double getStatementP99Millis();
+
+    double getConnectionAcquireP99Millis();
+
+    double getLockWaitP99Millis();
+
+    Map<String, Long> getCounters();
+
+    // the same text the stats command prints
+    String getReport();
+
+    void reset();
+}
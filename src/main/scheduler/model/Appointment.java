@@ -0,0 +1,71 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final int id;
+    private final Date time;
+    private final String vaccineName;
+    private final String caregiverName;
+    private final String patientName;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.id = builder.id;
+        this.time = builder.time;
+        this.vaccineName = builder.vaccineName;
+        this.caregiverName = builder.caregiverName;
+        this.patientName = builder.patientName;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "id=" + id +
+                ", time=" + time +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", caregiverName='" + caregiverName + '\'' +
+                ", patientName='" + patientName + '\'' +
+                '}';
+    }
+
+    public static class AppointmentBuilder {
+        private final int id;
+        private final Date time;
+        private final String vaccineName;
+        private final String caregiverName;
+        private final String patientName;
+
+        public AppointmentBuilder(int id, Date time, String vaccineName, String caregiverName, String patientName) {
+            this.id = id;
+            this.time = time;
+            this.vaccineName = vaccineName;
+            this.caregiverName = caregiverName;
+            this.patientName = patientName;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+}
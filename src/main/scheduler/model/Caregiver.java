@@ -1,26 +1,32 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.repository.Repositories;
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
 import java.sql.*;
 import java.util.Arrays;
+import java.util.List;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // PBKDF2 iterations the hash was computed with
+    private final int iterations;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     // Getters
@@ -36,50 +42,49 @@ public class Caregiver {
         return hash;
     }
 
+    public int getIterations() {
+        return iterations;
+    }
+
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.caregivers().save(this);
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Repositories.availabilities().add(d, this.username);
+    }
+
+    // Uploads many dates at once; dates already uploaded are skipped. Returns the number inserted.
+    public int uploadAvailability(List<Date> dates) throws SQLException {
+        return Repositories.availabilities().addAll(dates, this.username);
+    }
+
+    // Cancels those of the given appointments that this caregiver was booked for
+    public List<Appointment> cancel(List<Integer> ids) throws SQLException {
+        return Repositories.appointments().cancel(ids, this.username, true);
+    }
+
+    // Cancels everything this caregiver was booked for on the given date
+    public List<Appointment> cancel(Date d) throws SQLException {
+        return Repositories.appointments().cancelByCaregiver(this.username, d);
     }
 
     public static class CaregiverBuilder {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int iterations;
 
+        // for hashes computed with the original, fixed Util.HASH_STRENGTH
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, Util.HASH_STRENGTH);
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, int iterations) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.iterations = iterations;
         }
 
         public Caregiver build() {
@@ -92,6 +97,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int iterations;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,35 +105,34 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Caregiver stored = Repositories.caregivers().find(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            // check if the password matches
+            CredentialService credentials = CredentialService.get();
+            byte[] calculatedHash = credentials.hash(password, stored.getSalt(), stored.getIterations());
+            if (!Arrays.equals(stored.getHash(), calculatedHash)) {
+                return null;
+            }
+            this.salt = stored.getSalt();
+            this.hash = stored.getHash();
+            this.iterations = stored.getIterations();
+            // the password is only known right now, so this is when an outdated hash can be upgraded
+            if (credentials.needsRehash(this.iterations)) {
+                byte[] newSalt = Util.generateSalt();
+                byte[] newHash = credentials.hash(password, newSalt);
+                try {
+                    Repositories.caregivers().updateCredentials(this.username, newSalt, newHash, credentials.getIterations());
+                    this.salt = newSalt;
+                    this.hash = newHash;
+                    this.iterations = credentials.getIterations();
+                    credentials.recordRehash();
+                } catch (SQLException e) {
+                    // keep the old hash, the next login tries again
+                }
+            }
+            return new Caregiver(this);
         }
     }
 }
@@ -0,0 +1,100 @@
+package scheduler.repository;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+
+// One page of a user's appointments: a date window, the (Time, ID) position the page starts after,
+// and how many rows it may hold. Pages are in (Time, ID) order, so the last appointment of one page
+// is the position of the next and no offset has to be skipped over.
+public class AppointmentQuery {
+    // bound in place of an open end so the SQL text (and its cached statement) never changes
+    public static final Date FIRST_DAY = Date.valueOf("0001-01-01");
+    public static final Date LAST_DAY = Date.valueOf("9999-12-31");
+
+    private final Date from;
+    private final Date to;
+    private final Date afterTime;
+    private final int afterId;
+    private final int limit;
+
+    private AppointmentQuery(AppointmentQueryBuilder builder) {
+        this.from = builder.from;
+        this.to = builder.to;
+        this.afterTime = builder.afterTime;
+        this.afterId = builder.afterId;
+        this.limit = builder.limit;
+    }
+
+    // Getters
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public Date getAfterTime() {
+        return afterTime;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // the same window and page size, starting after the given appointment
+    public AppointmentQuery next(Appointment last) {
+        return new AppointmentQueryBuilder().window(from, to).after(last).limit(limit).build();
+    }
+
+    // true if the appointment belongs to this page's window and comes after its start position
+    public boolean matches(Appointment appointment) {
+        Date time = appointment.getTime();
+        if (time.before(from) || time.after(to)) {
+            return false;
+        }
+        int order = time.compareTo(afterTime);
+        return order > 0 || (order == 0 && appointment.getId() > afterId);
+    }
+
+    public static class AppointmentQueryBuilder {
+        private Date from = FIRST_DAY;
+        private Date to = LAST_DAY;
+        private Date afterTime = FIRST_DAY;
+        private int afterId = 0;
+        private int limit = 500;
+
+        // inclusive on both ends
+        public AppointmentQueryBuilder window(Date from, Date to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        public AppointmentQueryBuilder after(Appointment last) {
+            this.afterTime = last.getTime();
+            this.afterId = last.getId();
+            return this;
+        }
+
+        public AppointmentQueryBuilder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public AppointmentQuery build() {
+            if (limit < 1) {
+                throw new IllegalArgumentException("Page size must be at least 1");
+            }
+            if (to.before(from)) {
+                throw new IllegalArgumentException("The end date cannot be before the start date!");
+            }
+            return new AppointmentQuery(this);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package scheduler.repository;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface AppointmentRepository {
+
+    // Atomically claims a caregiver available on d, takes one dose of the vaccine and books the
+    // appointment. Throws IllegalStateException with a user-facing message when nothing can be booked.
+    Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException;
+
+    // Cancels, in one transaction, those of the given appointments that belong to username (as their
+    // patient, or as their caregiver if caregiver is true): each vaccine gets its doses back and each
+    // caregiver is available again on the freed date. Returns the appointments actually cancelled;
+    // ids that are unknown, someone else's or cancelled concurrently are skipped.
+    List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) throws SQLException;
+
+    // Cancels every appointment of the caregiver on d the same way, e.g. when they call in sick
+    List<Appointment> cancelByCaregiver(String caregiverName, Date d) throws SQLException;
+
+    List<Appointment> findByPatient(String patientName) throws SQLException;
+
+    List<Appointment> findByCaregiver(String caregiverName) throws SQLException;
+
+    // Those of the given appointments that belong to username (as their patient, or as their caregiver
+    // if caregiver is true); ids that are unknown or someone else's are left out
+    List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) throws SQLException;
+
+    List<Appointment> findByCaregiverOn(String caregiverName, Date d) throws SQLException;
+
+    // Hands one page of the patient's appointments to action in (Time, ID) order, row by row, and
+    // returns how many matched, looking one row past the page: more than query.getLimit() means
+    // another page follows, and only the first query.getLimit() of them reach action
+    int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action) throws SQLException;
+
+    int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action) throws SQLException;
+}
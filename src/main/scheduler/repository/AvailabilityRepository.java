@@ -0,0 +1,24 @@
+package scheduler.repository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+public interface AvailabilityRepository {
+
+    void add(Date d, String caregiverName) throws SQLException;
+
+    // Adds all given dates for the caregiver in one go, skipping dates that are already there.
+    // Returns how many dates were actually inserted.
+    int addAll(List<Date> dates, String caregiverName) throws SQLException;
+
+    List<String> findCaregivers(Date d) throws SQLException;
+
+    // free caregivers per day between first and last inclusive, in date order; days nobody is free on are left out
+    Map<Date, Integer> countByDay(Date first, Date last) throws SQLException;
+
+    // streams every (date, caregiver) row, e.g. to build an in-memory index
+    void forEach(BiConsumer<Date, String> action) throws SQLException;
+}
@@ -0,0 +1,27 @@
+package scheduler.repository;
+
+import scheduler.model.Caregiver;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface CaregiverRepository {
+
+    void save(Caregiver caregiver) throws SQLException;
+
+    // Inserts the caregivers in one batch, skipping usernames that already exist, so re-running an
+    // import batch is harmless. Returns how many were inserted.
+    int saveAll(List<Caregiver> caregivers) throws SQLException;
+
+    boolean exists(String username) throws SQLException;
+
+    // streams every stored username to action, without holding them all in memory
+    void forEachUsername(Consumer<String> action) throws SQLException;
+
+    // replaces the stored password hash, e.g. after rehashing with a new iteration count
+    void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) throws SQLException;
+
+    // returns the stored caregiver (with salt and hash) or null if there is none
+    Caregiver find(String username) throws SQLException;
+}
@@ -0,0 +1,130 @@
+package scheduler.repository;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Decides which of the caregivers free on a date a reservation tries to claim first. Trying them all
+// in key order makes every concurrent reservation for a popular date fight over the same row; the
+// other strategies hand concurrent reservations different caregivers, so most first claims succeed.
+// Picked with the CaregiverSelection environment variable:
+//   round_robin   (default) each reservation on a date starts one caregiver further along
+//   random        a fresh shuffle per reservation; spreads reservations from many nodes as well
+//   least_booked  prefers caregivers with fewer appointments booked through this process, choosing
+//                 between two random candidates each time so concurrent callers do not all pick the same one
+//   first         key order, the original behaviour
+public abstract class CaregiverSelector {
+
+    public static CaregiverSelector fromEnvironment() {
+        return fromName(System.getenv("CaregiverSelection"));
+    }
+
+    public static CaregiverSelector fromName(String name) {
+        if (name == null || name.isBlank()) {
+            return new RoundRobin();
+        }
+        switch (name.trim().toLowerCase()) {
+            case "round_robin":
+                return new RoundRobin();
+            case "random":
+                return new Shuffled();
+            case "least_booked":
+                return new LeastBooked();
+            case "first":
+                return new First();
+            default:
+                throw new IllegalArgumentException("Unknown caregiver selection: " + name);
+        }
+    }
+
+    // the order in which to try to claim the given caregivers, all free on d
+    public abstract List<String> order(Date d, List<String> candidates);
+
+    // a reservation on d claimed caregiver
+    public void booked(Date d, String caregiver) {
+    }
+
+    // an appointment of caregiver on d was cancelled
+    public void cancelled(Date d, String caregiver) {
+    }
+
+    private static class First extends CaregiverSelector {
+        @Override
+        public List<String> order(Date d, List<String> candidates) {
+            return candidates;
+        }
+    }
+
+    private static class Shuffled extends CaregiverSelector {
+        @Override
+        public List<String> order(Date d, List<String> candidates) {
+            List<String> order = new ArrayList<>(candidates);
+            Collections.shuffle(order, ThreadLocalRandom.current());
+            return order;
+        }
+    }
+
+    private static class RoundRobin extends CaregiverSelector {
+        // striped by date rather than one counter per date, so it never grows
+        private static final int STRIPES = 256;
+        private final AtomicIntegerArray next = new AtomicIntegerArray(STRIPES);
+
+        @Override
+        public List<String> order(Date d, List<String> candidates) {
+            if (candidates.size() < 2) {
+                return candidates;
+            }
+            int stripe = (d.hashCode() & Integer.MAX_VALUE) % STRIPES;
+            int start = (next.getAndIncrement(stripe) & Integer.MAX_VALUE) % candidates.size();
+            List<String> order = new ArrayList<>(candidates.size());
+            order.addAll(candidates.subList(start, candidates.size()));
+            order.addAll(candidates.subList(0, start));
+            return order;
+        }
+    }
+
+    private static class LeastBooked extends CaregiverSelector {
+        private final Map<String, AtomicInteger> bookings = new ConcurrentHashMap<>();
+
+        @Override
+        public List<String> order(Date d, List<String> candidates) {
+            List<String> remaining = new ArrayList<>(candidates);
+            List<String> order = new ArrayList<>(candidates.size());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (remaining.size() > 1) {
+                int a = random.nextInt(remaining.size());
+                int b = random.nextInt(remaining.size() - 1);
+                if (b >= a) {
+                    b++;
+                }
+                order.add(remaining.remove(bookings(remaining.get(a)) <= bookings(remaining.get(b)) ? a : b));
+            }
+            order.addAll(remaining);
+            return order;
+        }
+
+        @Override
+        public void booked(Date d, String caregiver) {
+            bookings.computeIfAbsent(caregiver, key -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public void cancelled(Date d, String caregiver) {
+            AtomicInteger count = bookings.get(caregiver);
+            if (count != null) {
+                count.decrementAndGet();
+            }
+        }
+
+        private int bookings(String caregiver) {
+            AtomicInteger count = bookings.get(caregiver);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package scheduler.repository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+
+// What changed in the reference tables (usernames, availabilities, vaccines) since some version of
+// the database, so a cache that keeps a copy on local disk only reads those rows at startup instead
+// of the whole tables
+public interface ChangeFeed {
+
+    // the version the database is at now; everything committed before this call is at or below it
+    long currentVersion() throws SQLException;
+
+    // false when the changes since version are no longer kept, or version is not one of this database's
+    boolean covers(long version) throws SQLException;
+
+    // every row changed since version, with its state as of now
+    void changesSince(long version, Changes changes) throws SQLException;
+
+    interface Changes {
+        void patient(String username);
+
+        void caregiver(String username);
+
+        // present is false when the caregiver is no longer free that day
+        void availability(Date d, String caregiverName, boolean present);
+
+        // doses is null when the vaccine is gone
+        void vaccine(String name, Integer doses);
+    }
+}
@@ -0,0 +1,27 @@
+package scheduler.repository;
+
+import scheduler.model.Patient;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface PatientRepository {
+
+    void save(Patient patient) throws SQLException;
+
+    // Inserts the patients in one batch, skipping usernames that already exist, so re-running an
+    // import batch is harmless. Returns how many were inserted.
+    int saveAll(List<Patient> patients) throws SQLException;
+
+    boolean exists(String username) throws SQLException;
+
+    // streams every stored username to action, without holding them all in memory
+    void forEachUsername(Consumer<String> action) throws SQLException;
+
+    // replaces the stored password hash, e.g. after rehashing with a new iteration count
+    void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) throws SQLException;
+
+    // returns the stored patient (with salt and hash) or null if there is none
+    Patient find(String username) throws SQLException;
+}
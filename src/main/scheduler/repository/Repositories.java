@@ -0,0 +1,252 @@
+package scheduler.repository;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CachedVaccineRepository;
+import scheduler.cache.IndexedAppointmentRepository;
+import scheduler.cache.IndexedAvailabilityRepository;
+import scheduler.cache.IndexedCaregiverRepository;
+import scheduler.cache.IndexedPatientRepository;
+import scheduler.cache.InventoryCache;
+import scheduler.cache.ReferenceSnapshot;
+import scheduler.db.ConnectionManager;
+import scheduler.journal.JournaledAppointmentRepository;
+import scheduler.journal.JournaledVaccineRepository;
+import scheduler.journal.ReservationJournal;
+import scheduler.metrics.Instrumented;
+import scheduler.repository.jdbc.ChangeTrackingFeed;
+import scheduler.repository.jdbc.EmbeddedDatabase;
+import scheduler.repository.jdbc.GuardedAppointmentRepository;
+import scheduler.repository.jdbc.JdbcAppointmentRepository;
+import scheduler.repository.jdbc.JdbcAvailabilityRepository;
+import scheduler.repository.jdbc.JdbcCaregiverRepository;
+import scheduler.repository.jdbc.JdbcJournalSink;
+import scheduler.repository.jdbc.JdbcPatientRepository;
+import scheduler.repository.jdbc.JdbcVaccineRepository;
+import scheduler.repository.jdbc.MigrationRunner;
+import scheduler.repository.jdbc.ReservationBatcher;
+import scheduler.repository.memory.InMemoryAppointmentRepository;
+import scheduler.repository.memory.InMemoryAvailabilityRepository;
+import scheduler.repository.memory.InMemoryCaregiverRepository;
+import scheduler.repository.memory.InMemoryPatientRepository;
+import scheduler.repository.memory.InMemoryStorage;
+import scheduler.repository.memory.InMemoryVaccineRepository;
+
+import java.sql.SQLException;
+
+public class Repositories {
+
+    // where the scheduler keeps its data, chosen once at startup
+    public enum Backend {
+        // the Azure SQL Server database configured through Server/DBName/UserID/Password
+        SQLSERVER,
+        // a JDBC database running inside this JVM (driver must be on the classpath)
+        EMBEDDED,
+        // concurrent maps, nothing survives a restart
+        MEMORY;
+
+        public static Backend fromName(String name) {
+            if (name == null || name.isBlank()) {
+                return SQLSERVER;
+            }
+            try {
+                return Backend.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown storage backend: " + name);
+            }
+        }
+    }
+
+    private static volatile Backend backend = null;
+    private static PatientRepository patients;
+    private static CaregiverRepository caregivers;
+    private static VaccineRepository vaccines;
+    private static AvailabilityRepository availabilities;
+    private static AppointmentRepository appointments;
+    private static InventoryCache inventory = null;
+    private static ReservationBatcher batcher = null;
+    private static ReferenceSnapshot snapshot = null;
+    private static ReservationJournal journal = null;
+
+    private Repositories() {
+    }
+
+    // reads the Storage environment variable, defaulting to the SQL Server backend
+    public static void initFromEnvironment() throws SQLException {
+        init(Backend.fromName(System.getenv("Storage")));
+    }
+
+    // --storage=<sqlserver|embedded|memory> on the command line wins over the Storage environment variable
+    public static void initFromArgs(String[] args) throws SQLException {
+        String storage = System.getenv("Storage");
+        for (String arg : args) {
+            if (arg.startsWith("--storage=")) {
+                storage = arg.substring("--storage=".length());
+            }
+        }
+        init(Backend.fromName(storage));
+    }
+
+    public static synchronized void init(Backend selected) throws SQLException {
+        CaregiverSelector selector = CaregiverSelector.fromEnvironment();
+        if (selected == Backend.MEMORY) {
+            InMemoryStorage store = new InMemoryStorage();
+            patients = new InMemoryPatientRepository(store);
+            caregivers = new InMemoryCaregiverRepository(store);
+            vaccines = new InMemoryVaccineRepository(store);
+            availabilities = new InMemoryAvailabilityRepository(store);
+            appointments = new InMemoryAppointmentRepository(store, selector);
+        } else {
+            if (selected == Backend.EMBEDDED) {
+                EmbeddedDatabase.start();
+            }
+            // Migrations=off for deployments whose database user may not change the schema
+            if (!"off".equalsIgnoreCase(System.getenv("Migrations"))) {
+                MigrationRunner.migrate();
+            }
+            // read-only commands read from a replica when ReplicaUrl or ReadReplica=on names one
+            ConnectionManager.startReplicaFromEnvironment();
+            patients = new JdbcPatientRepository();
+            caregivers = new JdbcCaregiverRepository();
+            vaccines = new JdbcVaccineRepository();
+            availabilities = new JdbcAvailabilityRepository();
+            appointments = new JdbcAppointmentRepository(null, selector);
+            boolean indexed = "on".equalsIgnoreCase(System.getenv("AvailabilityIndex"));
+            // Journal=on acknowledges reserve, cancel and add_doses once they are in a local journal and
+            // writes them to the database behind. Opened before anything below reads the tables, since it
+            // first applies whatever in it the database has not seen yet.
+            if ("on".equalsIgnoreCase(System.getenv("Journal")) && !indexed) {
+                throw new IllegalArgumentException("Journal=on decides reservations from the availability index, " +
+                        "which takes AvailabilityIndex=on");
+            }
+            journal = ReservationJournal.fromEnvironment(new JdbcJournalSink(vaccines, InventoryCache.nodeId()));
+            // SnapshotFile keeps what the caches below load on local disk; a restart then reads only the
+            // rows changed since (which takes SQL Server change tracking, see ChangeTrackingFeed)
+            snapshot = ReferenceSnapshot.fromEnvironment(ConnectionManager.getConnectionUrl());
+            if (snapshot != null) {
+                snapshot.load(ChangeTrackingFeed.fromDatabase(), patients, caregivers, vaccines, availabilities);
+            }
+            // InventoryCache=on keeps dose counts in memory and writes them behind every InventoryFlushMs, with
+            // a local log that a restart after a crash replays; only safe while this is the one node changing inventory
+            if ("on".equalsIgnoreCase(System.getenv("InventoryCache")) && journal != null) {
+                System.out.println("InventoryCache=on is ignored in journal mode, the journal keeps the dose counts");
+            } else if ("on".equalsIgnoreCase(System.getenv("InventoryCache"))) {
+                inventory = InventoryCache.fromEnvironment(vaccines, snapshot == null ? null : snapshot.vaccines());
+                vaccines = new CachedVaccineRepository(vaccines, inventory);
+                appointments = new JdbcAppointmentRepository(inventory, selector);
+            }
+            // ReserveBatchWindowMs > 0 books concurrent reservations together, one commit per batch
+            batcher = journal == null ? ReservationBatcher.fromEnvironment(appointments, inventory, selector) : null;
+            if (batcher != null) {
+                appointments = batcher;
+            }
+            // username checks are served from memory unless UsernameIndex=off
+            if (!"off".equalsIgnoreCase(System.getenv("UsernameIndex"))) {
+                if (snapshot != null) {
+                    patients = new IndexedPatientRepository(patients, snapshot.patients());
+                    caregivers = new IndexedCaregiverRepository(caregivers, snapshot.caregivers());
+                } else {
+                    patients = new IndexedPatientRepository(patients);
+                    caregivers = new IndexedCaregiverRepository(caregivers);
+                }
+            }
+            // AvailabilityIndex=on serves availability lookups from bitmaps in memory; like the inventory
+            // cache, this only sees uploads and reservations made through this process, so it is only safe
+            // while this is the one node (and nobody by hand) changing Availabilities
+            if (indexed) {
+                AvailabilityIndex index = snapshot == null ? new AvailabilityIndex() : snapshot.availability();
+                availabilities = new IndexedAvailabilityRepository(availabilities, index, snapshot == null);
+                if (journal != null) {
+                    journal.start(index, vaccines, selector);
+                    appointments = new JournaledAppointmentRepository(appointments, journal);
+                    vaccines = new JournaledVaccineRepository(vaccines, journal);
+                } else {
+                    appointments = new IndexedAppointmentRepository(appointments, index);
+                }
+            }
+            // same-day reservations of this process queue on a striped lock, transient failures are retried;
+            // the journal decides reservations in memory and has nothing to queue or retry
+            if (journal == null) {
+                appointments = GuardedAppointmentRepository.fromEnvironment(appointments, batcher != null);
+            }
+        }
+        // outermost, so the timings include whatever the caches save or cost
+        patients = Instrumented.wrap(PatientRepository.class, patients, "patients");
+        caregivers = Instrumented.wrap(CaregiverRepository.class, caregivers, "caregivers");
+        vaccines = Instrumented.wrap(VaccineRepository.class, vaccines, "vaccines");
+        availabilities = Instrumented.wrap(AvailabilityRepository.class, availabilities, "availabilities");
+        appointments = Instrumented.wrap(AppointmentRepository.class, appointments, "appointments");
+        backend = selected;
+    }
+
+    // books queued reservations, flushes whatever is still only held in memory or the journal and saves
+    // the reference snapshot, then closes the connection pool
+    public static synchronized void shutdown() {
+        if (batcher != null) {
+            batcher.close();
+            batcher = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (inventory != null) {
+            inventory.close();
+            inventory = null;
+        }
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+        ConnectionManager.shutdown();
+    }
+
+    // null unless Journal=on
+    public static ReservationJournal journal() {
+        return journal;
+    }
+
+    public static Backend backend() {
+        ensureInitialized();
+        return backend;
+    }
+
+    public static PatientRepository patients() {
+        ensureInitialized();
+        return patients;
+    }
+
+    public static CaregiverRepository caregivers() {
+        ensureInitialized();
+        return caregivers;
+    }
+
+    public static VaccineRepository vaccines() {
+        ensureInitialized();
+        return vaccines;
+    }
+
+    public static AvailabilityRepository availabilities() {
+        ensureInitialized();
+        return availabilities;
+    }
+
+    public static AppointmentRepository appointments() {
+        ensureInitialized();
+        return appointments;
+    }
+
+    // code that never called init (e.g. a tool using the models directly) gets the original SQL Server setup
+    private static void ensureInitialized() {
+        if (backend == null) {
+            synchronized (Repositories.class) {
+                if (backend == null) {
+                    try {
+                        init(Backend.SQLSERVER);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+    }
+}
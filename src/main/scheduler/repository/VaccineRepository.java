@@ -0,0 +1,30 @@
+package scheduler.repository;
+
+import scheduler.model.Vaccine;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+public interface VaccineRepository {
+
+    void save(Vaccine vaccine) throws SQLException;
+
+    // returns null if the vaccine is not stocked at all
+    Vaccine find(String vaccineName) throws SQLException;
+
+    List<Vaccine> findAll() throws SQLException;
+
+    // applies delta to the stored dose count, relative to whatever is stored right now
+    void addDoses(String vaccineName, int delta) throws SQLException;
+
+    // Adds doses to many vaccines in one transaction, creating the vaccines that are not stocked yet
+    void addDoses(Map<String, Integer> deltas) throws SQLException;
+
+    // Applies a batch of dose deltas written behind by one node, at most once: the batch is skipped if
+    // that node already applied a batch with this (or a later) sequence number. Returns whether it ran.
+    boolean applyDeltas(Map<String, Integer> deltas, String node, long sequence) throws SQLException;
+
+    // the last sequence number applyDeltas recorded for the node, 0 if none
+    long lastAppliedSequence(String node) throws SQLException;
+}
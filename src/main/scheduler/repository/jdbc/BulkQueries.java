@@ -0,0 +1,38 @@
+package scheduler.repository.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Helpers shared by the batched repository methods
+class BulkQueries {
+    // SQL Server accepts at most 2100 parameters per statement, stay well below it
+    static final int MAX_IN_PARAMETERS = 1000;
+
+    private BulkQueries() {
+    }
+
+    // Returns which of the given keys already exist in table.column, using IN lists of bounded size
+    static Set<String> findExisting(Connection con, String table, String column, List<String> keys) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < keys.size(); from += MAX_IN_PARAMETERS) {
+            List<String> chunk = keys.subList(from, Math.min(keys.size(), from + MAX_IN_PARAMETERS));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            PreparedStatement statement = con.prepareStatement(
+                    "SELECT " + column + " FROM " + table + " WHERE " + column + " IN (" + placeholders + ")");
+            for (int i = 0; i < chunk.size(); i++) {
+                statement.setString(i + 1, chunk.get(i));
+            }
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                existing.add(resultSet.getString(1));
+            }
+        }
+        return existing;
+    }
+}
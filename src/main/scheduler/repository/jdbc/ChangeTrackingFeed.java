@@ -0,0 +1,136 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.repository.ChangeFeed;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// ChangeFeed over SQL Server change tracking, which records the keys of changed rows at no cost to the
+// statements that change them. Someone allowed to has to switch it on once, outside any migration
+// (ALTER DATABASE cannot run inside the migration's transaction):
+//   ALTER DATABASE <DBName> SET CHANGE_TRACKING = ON (CHANGE_RETENTION = 7 DAYS, AUTO_CLEANUP = ON);
+//   ALTER TABLE Patients ENABLE CHANGE_TRACKING;  -- and Caregivers, Availabilities, Vaccines
+// A snapshot older than the retention period is no longer covered and the tables are read in full.
+//
+// The changes only name keys; each is joined back to its table, so a row deleted and inserted again
+// comes out as it is now however the tracking summarises it, and applying a change twice is harmless.
+public class ChangeTrackingFeed implements ChangeFeed {
+    private static final int FETCH_SIZE = 5000;
+    private static final String[] TABLES = {"Patients", "Caregivers", "Availabilities", "Vaccines"};
+
+    private ChangeTrackingFeed() {
+    }
+
+    // null unless the database is a SQL Server with change tracking on for all the reference tables
+    public static ChangeTrackingFeed fromDatabase() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            if (!con.getMetaData().getDatabaseProductName().contains("SQL Server")) {
+                return null;
+            }
+            for (String table : TABLES) {
+                if (minValidVersion(con, table) == null) {
+                    return null;
+                }
+            }
+            return new ChangeTrackingFeed();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public long currentVersion() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            ResultSet resultSet = con.prepareStatement("SELECT CHANGE_TRACKING_CURRENT_VERSION()").executeQuery();
+            resultSet.next();
+            long version = resultSet.getLong(1);
+            if (resultSet.wasNull()) {
+                throw new SQLException("Change tracking is not on for this database");
+            }
+            return version;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean covers(long version) throws SQLException {
+        if (version < 0 || version > currentVersion()) {
+            // not a version of this database, e.g. a snapshot of a database that was since recreated
+            return false;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (String table : TABLES) {
+                Long oldest = minValidVersion(con, table);
+                if (oldest == null || oldest > version) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void changesSince(long version, Changes changes) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            ResultSet resultSet = changed(con, "SELECT c.Username FROM CHANGETABLE(CHANGES Patients, ?) AS c " +
+                    "JOIN Patients p ON p.Username = c.Username", version);
+            while (resultSet.next()) {
+                changes.patient(resultSet.getString(1));
+            }
+            resultSet.close();
+            resultSet = changed(con, "SELECT c.Username FROM CHANGETABLE(CHANGES Caregivers, ?) AS c " +
+                    "JOIN Caregivers g ON g.Username = c.Username", version);
+            while (resultSet.next()) {
+                changes.caregiver(resultSet.getString(1));
+            }
+            resultSet.close();
+            resultSet = changed(con, "SELECT c.Time, c.Username, a.Username FROM CHANGETABLE(CHANGES Availabilities, ?) AS c " +
+                    "LEFT JOIN Availabilities a ON a.Time = c.Time AND a.Username = c.Username", version);
+            while (resultSet.next()) {
+                changes.availability(resultSet.getDate(1), resultSet.getString(2), resultSet.getString(3) != null);
+            }
+            resultSet.close();
+            resultSet = changed(con, "SELECT c.Name, v.Name, v.Doses FROM CHANGETABLE(CHANGES Vaccines, ?) AS c " +
+                    "LEFT JOIN Vaccines v ON v.Name = c.Name", version);
+            while (resultSet.next()) {
+                changes.vaccine(resultSet.getString(1), resultSet.getString(2) == null ? null : resultSet.getInt(3));
+            }
+            resultSet.close();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static ResultSet changed(Connection con, String sql, long version) throws SQLException {
+        PreparedStatement statement = con.prepareStatement(sql);
+        statement.setFetchSize(FETCH_SIZE);
+        statement.setLong(1, version);
+        return statement.executeQuery();
+    }
+
+    // null when the table is not tracked
+    private static Long minValidVersion(Connection con, String table) throws SQLException {
+        PreparedStatement statement = con.prepareStatement("SELECT CHANGE_TRACKING_MIN_VALID_VERSION(OBJECT_ID(?))");
+        statement.setString(1, table);
+        ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        long version = resultSet.getLong(1);
+        Long result = resultSet.wasNull() ? null : version;
+        resultSet.close();
+        return result;
+    }
+}
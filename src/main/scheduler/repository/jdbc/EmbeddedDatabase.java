@@ -0,0 +1,26 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+
+// Runs the scheduler against a JDBC database living inside this JVM (H2 by default), so the JDBC
+// repositories can be exercised without a SQL Server. The driver jar has to be on the classpath.
+// Its schema is created by MigrationRunner like any other database's.
+//
+// Read replica routing can be tried locally with ReplicaUrl set to a second embedded database. Nothing
+// copies the primary into it, so it needs its own schema and data, and ReplicaHeartbeat=off since its
+// heartbeat never moves. Pointing ReplicaUrl at the primary's own URL shows the routing with no lag.
+public class EmbeddedDatabase {
+
+    private static final String DEFAULT_DRIVER = "org.h2.Driver";
+    private static final String DEFAULT_URL = "jdbc:h2:mem:scheduler;MODE=MSSQLServer;DB_CLOSE_DELAY=-1";
+
+    private EmbeddedDatabase() {
+    }
+
+    // EmbeddedDriver and EmbeddedUrl override the defaults, e.g. to use a file-backed database
+    public static void start() {
+        String driver = System.getenv("EmbeddedDriver");
+        String url = System.getenv("EmbeddedUrl");
+        ConnectionManager.configure(driver == null ? DEFAULT_DRIVER : driver, url == null ? DEFAULT_URL : url, "sa", "");
+    }
+}
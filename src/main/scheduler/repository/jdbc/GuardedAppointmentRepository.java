@@ -0,0 +1,106 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.RetryPolicy;
+import scheduler.db.StripedLocks;
+import scheduler.model.Appointment;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.AppointmentRepository;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Keeps reservations that would collide in the database from getting there at the same time: a
+// reserve holds the striped lock of its (date, vaccine) for its whole transaction, so sessions of this
+// process booking the same day and vaccine queue here instead of deadlocking over the same rows. What
+// still collides (other nodes, cancellations) is retried by the RetryPolicy when it fails transiently.
+public class GuardedAppointmentRepository implements AppointmentRepository {
+    private final AppointmentRepository delegate;
+    // null when ReserveLockStripes=0
+    private final StripedLocks locks;
+    private final RetryPolicy retry;
+
+    public GuardedAppointmentRepository(AppointmentRepository delegate, StripedLocks locks, RetryPolicy retry) {
+        this.delegate = delegate;
+        this.locks = locks;
+        this.retry = retry;
+    }
+
+    // ReserveLockStripes (default 256, 0 for no locking) and ReserveLockTimeoutMs (default 5000),
+    // plus the retry settings of RetryPolicy.fromEnvironment. Reservations that are batched are already
+    // serialized by the ReservationBatcher, and locking them would only keep them out of each other's batches.
+    public static GuardedAppointmentRepository fromEnvironment(AppointmentRepository delegate, boolean batched) {
+        int stripeCount = batched ? 0 : Util.intEnv("ReserveLockStripes", 256);
+        StripedLocks locks = stripeCount <= 0 ? null
+                : new StripedLocks(stripeCount, Util.longEnv("ReserveLockTimeoutMs", 5000));
+        return new GuardedAppointmentRepository(delegate, locks, RetryPolicy.fromEnvironment());
+    }
+
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException {
+        ReentrantLock lock = null;
+        if (locks != null) {
+            try {
+                lock = locks.lock(d, vaccineName);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting to reserve", e);
+            }
+            if (lock == null) {
+                throw new IllegalStateException("Server busy, please try again!");
+            }
+        }
+        try {
+            return retry.run("reserve", () -> delegate.reserve(d, vaccineName, patientName));
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        return retry.run("cancel", () -> delegate.cancel(ids, username, caregiver));
+    }
+
+    @Override
+    public List<Appointment> cancelByCaregiver(String caregiverName, Date d) throws SQLException {
+        return retry.run("cancel", () -> delegate.cancelByCaregiver(caregiverName, d));
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientName) throws SQLException {
+        return delegate.findByPatient(patientName);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverName) throws SQLException {
+        return delegate.findByCaregiver(caregiverName);
+    }
+
+    @Override
+    public List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        return delegate.findByIds(ids, username, caregiver);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiverOn(String caregiverName, Date d) throws SQLException {
+        return delegate.findByCaregiverOn(caregiverName, d);
+    }
+
+    @Override
+    public int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return delegate.streamByPatient(patientName, query, action);
+    }
+
+    @Override
+    public int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return delegate.streamByCaregiver(caregiverName, query, action);
+    }
+}
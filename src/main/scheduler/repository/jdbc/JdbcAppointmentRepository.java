@@ -0,0 +1,423 @@
+package scheduler.repository.jdbc;
+
+import scheduler.cache.InventoryCache;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.AppointmentRepository;
+import scheduler.repository.CaregiverSelector;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+public class JdbcAppointmentRepository implements AppointmentRepository {
+    // how many free caregivers one claim round reads, for the CaregiverSelector to order
+    private static final int CLAIM_CANDIDATES = 32;
+    // rounds of claims before giving up on a contended date; a round whose every claim lost a race
+    // reads the caregivers that are still free
+    private static final int CLAIM_ROUNDS = 3;
+    // rows per round trip when streaming a page of appointments
+    private static final int FETCH_SIZE = 200;
+
+    // when set, doses are taken from the in-memory inventory instead of the Vaccines table
+    private final InventoryCache inventory;
+    private final CaregiverSelector selector;
+    // SQL Server can skip rows other transactions are claiming instead of waiting for them
+    private volatile Boolean readPast = null;
+
+    public JdbcAppointmentRepository() {
+        this(null);
+    }
+
+    public JdbcAppointmentRepository(InventoryCache inventory) {
+        this(inventory, CaregiverSelector.fromEnvironment());
+    }
+
+    public JdbcAppointmentRepository(InventoryCache inventory, CaregiverSelector selector) {
+        this.inventory = inventory;
+        this.selector = selector;
+    }
+
+    // Reserves the first caregiver we can claim for the given date, all in one transaction:
+    // the availability row is deleted to claim it and the dose count is decremented only while
+    // doses remain, so concurrent reservations can neither double-book nor oversell
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        boolean doseTaken = false;
+        try {
+            con.setAutoCommit(false);
+            String caregiver = claimCaregiver(con, d);
+            if (caregiver == null) {
+                con.rollback();
+                throw new IllegalStateException("No available caregivers for this date!");
+            }
+            if (inventory != null) {
+                takeCachedDose(con, vaccineName);
+                doseTaken = true;
+            } else {
+                PreparedStatement takeDose = con.prepareStatement(
+                        "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ? AND Doses > 0");
+                takeDose.setString(1, vaccineName);
+                if (takeDose.executeUpdate() == 0) {
+                    con.rollback();
+                    // only the failure path pays for finding out why
+                    PreparedStatement checkVaccine = con.prepareStatement("SELECT Doses FROM Vaccines WHERE Name = ?");
+                    checkVaccine.setString(1, vaccineName);
+                    if (!checkVaccine.executeQuery().next()) {
+                        throw new IllegalStateException("Our vaccine storage does not have this vaccine!");
+                    }
+                    throw new IllegalStateException("No available doses for this vaccine!");
+                }
+            }
+            PreparedStatement book = con.prepareStatement(
+                    "INSERT INTO Appointments (Time, VaccineName, CaregiverName, PatientName) VALUES (?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            book.setDate(1, d);
+            book.setString(2, vaccineName);
+            book.setString(3, caregiver);
+            book.setString(4, patientName);
+            book.executeUpdate();
+            ResultSet keys = book.getGeneratedKeys();
+            if (!keys.next()) {
+                throw new SQLException("No appointment ID was generated");
+            }
+            int id = keys.getInt(1);
+            con.commit();
+            ConnectionManager.afterCommit(() -> selector.booked(d, caregiver));
+            return new Appointment.AppointmentBuilder(id, d, vaccineName, caregiver, patientName).build();
+        } catch (SQLException e) {
+            con.rollback();
+            if (doseTaken) {
+                inventory.giveBack(vaccineName);
+            }
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void takeCachedDose(Connection con, String vaccineName) throws SQLException {
+        switch (inventory.take(vaccineName)) {
+            case TAKEN:
+                return;
+            case UNKNOWN_VACCINE:
+                con.rollback();
+                throw new IllegalStateException("Our vaccine storage does not have this vaccine!");
+            default:
+                con.rollback();
+                throw new IllegalStateException("No available doses for this vaccine!");
+        }
+    }
+
+    // Returns the caregiver whose availability row we managed to delete, or null if nobody is free.
+    // A zero delete count means another reservation claimed that caregiver first, so try the next one
+    // in the selector's order; on SQL Server rows that are being claimed right now are skipped rather
+    // than waited for, both when reading candidates and when claiming.
+    private String claimCaregiver(Connection con, Date d) throws SQLException {
+        String hint = readPast(con) ? " WITH (READPAST)" : "";
+        PreparedStatement findAvailability = con.prepareStatement(
+                "SELECT Username FROM Availabilities" + hint + " WHERE Time = ?");
+        PreparedStatement claim = con.prepareStatement(
+                "DELETE FROM Availabilities" + hint + " WHERE Time = ? AND Username = ?");
+        for (int round = 0; round < CLAIM_ROUNDS; round++) {
+            findAvailability.setMaxRows(CLAIM_CANDIDATES);
+            findAvailability.setDate(1, d);
+            ResultSet caregivers = findAvailability.executeQuery();
+            List<String> candidates = new ArrayList<>();
+            while (caregivers.next()) {
+                candidates.add(caregivers.getString("Username"));
+            }
+            caregivers.close();
+            for (String candidate : selector.order(d, candidates)) {
+                claim.setDate(1, d);
+                claim.setString(2, candidate);
+                if (claim.executeUpdate() == 1) {
+                    return candidate;
+                }
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean readPast(Connection con) throws SQLException {
+        Boolean supported = readPast;
+        if (supported == null) {
+            supported = con.getMetaData().getDatabaseProductName().contains("SQL Server");
+            readPast = supported;
+        }
+        return supported;
+    }
+
+    @Override
+    public List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            List<Appointment> cancelled = release(con, selectByIds(con, ids, username, caregiver));
+            con.commit();
+            returnCachedDoses(cancelled);
+            forgetBookings(cancelled);
+            return cancelled;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelByCaregiver(String caregiverName, Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            List<Appointment> cancelled = release(con, selectOn(con, caregiverName, d));
+            con.commit();
+            returnCachedDoses(cancelled);
+            forgetBookings(cancelled);
+            return cancelled;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Undoes the given reservations with three batched statements, whatever their number: the deletes,
+    // one dose update per vaccine, and the availability inserts. The delete count decides which
+    // appointments this transaction cancelled, so a concurrent cancel cannot return a dose twice.
+    // Doses and availabilities are written in key order so bulk cancels lock rows in the same order.
+    private List<Appointment> release(Connection con, List<Appointment> found) throws SQLException {
+        List<Appointment> cancelled = new ArrayList<>();
+        if (found.isEmpty()) {
+            return cancelled;
+        }
+        PreparedStatement delete = con.prepareStatement("DELETE FROM Appointments WHERE ID = ?");
+        for (Appointment appointment : found) {
+            delete.setInt(1, appointment.getId());
+            delete.addBatch();
+        }
+        int[] deleted = delete.executeBatch();
+        for (int i = 0; i < found.size(); i++) {
+            if (deleted[i] != 0) {
+                cancelled.add(found.get(i));
+            }
+        }
+        if (cancelled.isEmpty()) {
+            return cancelled;
+        }
+        if (inventory == null) {
+            Map<String, Integer> doses = new TreeMap<>();
+            for (Appointment appointment : cancelled) {
+                doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+            }
+            PreparedStatement giveBack = con.prepareStatement("UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?");
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                giveBack.setInt(1, entry.getValue());
+                giveBack.setString(2, entry.getKey());
+                giveBack.addBatch();
+            }
+            giveBack.executeBatch();
+        }
+        List<Appointment> byAvailability = new ArrayList<>(cancelled);
+        byAvailability.sort(Comparator.comparing(Appointment::getTime).thenComparing(Appointment::getCaregiverName));
+        // the caregiver may have uploaded that date again since, which is just as good
+        PreparedStatement reinstate = con.prepareStatement("INSERT INTO Availabilities (Time, Username) " +
+                "SELECT CAST(? AS date), CAST(? AS varchar(255)) WHERE NOT EXISTS " +
+                "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)");
+        for (Appointment appointment : byAvailability) {
+            reinstate.setDate(1, appointment.getTime());
+            reinstate.setString(2, appointment.getCaregiverName());
+            reinstate.setDate(3, appointment.getTime());
+            reinstate.setString(4, appointment.getCaregiverName());
+            reinstate.addBatch();
+        }
+        reinstate.executeBatch();
+        return cancelled;
+    }
+
+    // with the inventory cache the Vaccines table is written behind, so the doses go back through it
+    private void returnCachedDoses(List<Appointment> cancelled) {
+        if (inventory == null || cancelled.isEmpty()) {
+            return;
+        }
+        ConnectionManager.afterCommit(() -> {
+            for (Appointment appointment : cancelled) {
+                inventory.giveBack(appointment.getVaccineName());
+            }
+        });
+    }
+
+    private void forgetBookings(List<Appointment> cancelled) {
+        ConnectionManager.afterCommit(() -> {
+            for (Appointment appointment : cancelled) {
+                selector.cancelled(appointment.getTime(), appointment.getCaregiverName());
+            }
+        });
+    }
+
+    // the owner's appointments among ids, with IN lists of bounded size
+    private static List<Appointment> selectByIds(Connection con, List<Integer> ids, String username, boolean caregiver)
+            throws SQLException {
+        String owner = caregiver ? "CaregiverName" : "PatientName";
+        List<Appointment> found = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += BulkQueries.MAX_IN_PARAMETERS) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + BulkQueries.MAX_IN_PARAMETERS));
+            PreparedStatement select = con.prepareStatement(
+                    "SELECT ID, Time, VaccineName, CaregiverName, PatientName FROM Appointments WHERE " + owner +
+                            " = ? AND ID IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")");
+            select.setString(1, username);
+            for (int i = 0; i < chunk.size(); i++) {
+                select.setInt(i + 2, chunk.get(i));
+            }
+            readAppointments(select.executeQuery(), found);
+        }
+        return found;
+    }
+
+    private static List<Appointment> selectOn(Connection con, String caregiverName, Date d) throws SQLException {
+        // answered from the AppointmentsByCaregiver index
+        PreparedStatement select = con.prepareStatement("SELECT ID, Time, VaccineName, CaregiverName, PatientName " +
+                "FROM Appointments WHERE CaregiverName = ? AND Time = ?");
+        select.setString(1, caregiverName);
+        select.setDate(2, d);
+        List<Appointment> found = new ArrayList<>();
+        readAppointments(select.executeQuery(), found);
+        return found;
+    }
+
+    private static void readAppointments(ResultSet resultSet, List<Appointment> appointments) throws SQLException {
+        while (resultSet.next()) {
+            appointments.add(new Appointment.AppointmentBuilder(resultSet.getInt("ID"), resultSet.getDate("Time"),
+                    resultSet.getString("VaccineName"), resultSet.getString("CaregiverName"),
+                    resultSet.getString("PatientName")).build());
+        }
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientName) throws SQLException {
+        return findBy("SELECT ID, Time, VaccineName, CaregiverName, PatientName FROM Appointments WHERE PatientName = ?",
+                patientName);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverName) throws SQLException {
+        return findBy("SELECT ID, Time, VaccineName, CaregiverName, PatientName FROM Appointments WHERE CaregiverName = ?",
+                caregiverName);
+    }
+
+    @Override
+    public List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return selectByIds(con, ids, username, caregiver);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> findByCaregiverOn(String caregiverName, Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return selectOn(con, caregiverName, d);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static List<Appointment> findBy(String query, String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(query);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            List<Appointment> appointments = new ArrayList<>();
+            while (resultSet.next()) {
+                appointments.add(new Appointment.AppointmentBuilder(resultSet.getInt("ID"), resultSet.getDate("Time"),
+                        resultSet.getString("VaccineName"), resultSet.getString("CaregiverName"),
+                        resultSet.getString("PatientName")).build());
+            }
+            return appointments;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return streamBy("SELECT ID, Time, VaccineName, CaregiverName, PatientName FROM Appointments " +
+                "WHERE PatientName = ? AND Time BETWEEN ? AND ? AND (Time > ? OR (Time = ? AND ID > ?)) " +
+                "ORDER BY Time, ID", patientName, query, action);
+    }
+
+    @Override
+    public int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return streamBy("SELECT ID, Time, VaccineName, CaregiverName, PatientName FROM Appointments " +
+                "WHERE CaregiverName = ? AND Time BETWEEN ? AND ? AND (Time > ? OR (Time = ? AND ID > ?)) " +
+                "ORDER BY Time, ID", caregiverName, query, action);
+    }
+
+    // Keyset pagination: the page starts right after the last (Time, ID) the caller saw, which the
+    // (name, Time, ID) indexes of the schema answer with a range seek however deep into the history it is;
+    // one row past the limit is read but not handed over, so the caller knows whether another page follows
+    private static int streamBy(String query, String username, AppointmentQuery page, Consumer<Appointment> action)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(query);
+            statement.setMaxRows(page.getLimit() + 1);
+            statement.setFetchSize(Math.min(page.getLimit() + 1, FETCH_SIZE));
+            statement.setString(1, username);
+            statement.setDate(2, page.getFrom());
+            statement.setDate(3, page.getTo());
+            statement.setDate(4, page.getAfterTime());
+            statement.setDate(5, page.getAfterTime());
+            statement.setInt(6, page.getAfterId());
+            ResultSet resultSet = statement.executeQuery();
+            int count = 0;
+            while (resultSet.next()) {
+                if (++count > page.getLimit()) {
+                    break;
+                }
+                action.accept(new Appointment.AppointmentBuilder(resultSet.getInt("ID"), resultSet.getDate("Time"),
+                        resultSet.getString("VaccineName"), resultSet.getString("CaregiverName"),
+                        resultSet.getString("PatientName")).build());
+            }
+            return count;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.repository.AvailabilityRepository;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+public class JdbcAvailabilityRepository implements AvailabilityRepository {
+    // a batch that lost a race to a concurrent upload is re-read and retried this many times in total
+    private static final int BATCH_ATTEMPTS = 3;
+    // rows per round trip when streaming the whole table
+    private static final int FETCH_SIZE = 5000;
+
+    @Override
+    public void add(Date d, String caregiverName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+        try {
+            PreparedStatement statement = con.prepareStatement(addAvailability);
+            statement.setDate(1, d);
+            statement.setString(2, caregiverName);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // One transaction: read which dates in the range already exist, then insert the rest as a single
+    // batch. If a concurrent upload slips a duplicate in between, the batch is rolled back and redone.
+    @Override
+    public int addAll(List<Date> dates, String caregiverName) throws SQLException {
+        if (dates.isEmpty()) {
+            return 0;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    int inserted = insertMissing(con, dates, caregiverName);
+                    con.commit();
+                    return inserted;
+                } catch (BatchUpdateException e) {
+                    con.rollback();
+                    if (attempt == BATCH_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static int insertMissing(Connection con, List<Date> dates, String caregiverName) throws SQLException {
+        Date first = Collections.min(dates);
+        Date last = Collections.max(dates);
+        PreparedStatement existing = con.prepareStatement(
+                "SELECT Time FROM Availabilities WHERE Username = ? AND Time BETWEEN ? AND ?");
+        existing.setString(1, caregiverName);
+        existing.setDate(2, first);
+        existing.setDate(3, last);
+        ResultSet resultSet = existing.executeQuery();
+        Set<LocalDate> present = new HashSet<>();
+        while (resultSet.next()) {
+            present.add(resultSet.getDate("Time").toLocalDate());
+        }
+
+        PreparedStatement statement = con.prepareStatement("INSERT INTO Availabilities VALUES (? , ?)");
+        int inserted = 0;
+        for (Date d : dates) {
+            if (present.add(d.toLocalDate())) {
+                statement.setDate(1, d);
+                statement.setString(2, caregiverName);
+                statement.addBatch();
+                inserted++;
+            }
+        }
+        if (inserted > 0) {
+            statement.executeBatch();
+        }
+        return inserted;
+    }
+
+    @Override
+    public List<String> findCaregivers(Date d) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String searchSchedule = "SELECT Username FROM Availabilities WHERE Time = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(searchSchedule);
+            statement.setDate(1, d);
+            ResultSet resultSet = statement.executeQuery();
+            List<String> caregivers = new ArrayList<>();
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString("Username"));
+            }
+            return caregivers;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Map<Date, Integer> countByDay(Date first, Date last) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement(
+                    "SELECT Time, COUNT(*) AS Free FROM Availabilities WHERE Time BETWEEN ? AND ? GROUP BY Time");
+            statement.setDate(1, first);
+            statement.setDate(2, last);
+            ResultSet resultSet = statement.executeQuery();
+            Map<Date, Integer> counts = new TreeMap<>();
+            while (resultSet.next()) {
+                counts.put(resultSet.getDate("Time"), resultSet.getInt("Free"));
+            }
+            return counts;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<Date, String> action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("SELECT Time, Username FROM Availabilities");
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                action.accept(resultSet.getDate(1), resultSet.getString(2));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.journal.JournalRecord;
+import scheduler.journal.ReservationJournal;
+import scheduler.model.Appointment;
+import scheduler.repository.VaccineRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Writes ReservationJournal records to the tables, a batch per transaction. Consecutive records of the
+// same kind share batched statements; kinds are applied in journal order, since a cancellation can
+// free a caregiver that the next reservation claims again. Dose changes of reservations and
+// cancellations go through VaccineRepository.applyDeltas under the node name "<node>/journal", which
+// records the batch's last sequence number in InventoryFlushes in the same transaction.
+//
+// Appointments are inserted with the IDs the journal gave them. On SQL Server that takes
+// IDENTITY_INSERT, i.e. ALTER permission on Appointments; H2 takes explicit IDs as they are but does
+// not move its identity past them, so an embedded database kept on disk should stay in journal mode.
+public class JdbcJournalSink implements ReservationJournal.Sink {
+    private final VaccineRepository vaccines;
+    private final String node;
+    private volatile Boolean identityInsert = null;
+
+    public JdbcJournalSink(VaccineRepository vaccines, String node) {
+        this.vaccines = vaccines;
+        this.node = node + "/journal";
+    }
+
+    @Override
+    public long lastApplied() throws SQLException {
+        return vaccines.lastAppliedSequence(node);
+    }
+
+    @Override
+    public int maxAppointmentId() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            ResultSet resultSet = con.prepareStatement("SELECT MAX(ID) AS MaxID FROM Appointments").executeQuery();
+            return resultSet.next() ? resultSet.getInt("MaxID") : 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void apply(List<JournalRecord> records) throws SQLException {
+        ConnectionManager.beginSharedTransaction();
+        try {
+            long last = vaccines.lastAppliedSequence(node);
+            List<JournalRecord> fresh = new ArrayList<>();
+            for (JournalRecord record : records) {
+                if (record.getSequence() > last) {
+                    fresh.add(record);
+                }
+            }
+            if (fresh.isEmpty()) {
+                ConnectionManager.rollbackSharedTransaction();
+                return;
+            }
+            // new vaccines first, the appointments below may refer to them
+            Map<String, Integer> restock = new TreeMap<>();
+            for (JournalRecord record : fresh) {
+                for (Map.Entry<String, Integer> entry : record.getDoses().entrySet()) {
+                    restock.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                }
+            }
+            vaccines.addDoses(restock);
+            Map<String, Integer> deltas = new TreeMap<>();
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            try {
+                int from = 0;
+                while (from < fresh.size()) {
+                    JournalRecord.Type type = fresh.get(from).getType();
+                    List<Appointment> run = new ArrayList<>();
+                    int to = from;
+                    for (; to < fresh.size() && fresh.get(to).getType() == type; to++) {
+                        run.addAll(fresh.get(to).getAppointments());
+                    }
+                    if (type == JournalRecord.Type.RESERVE) {
+                        book(con, run);
+                    } else if (type == JournalRecord.Type.CANCEL) {
+                        release(con, run);
+                    }
+                    for (Appointment appointment : run) {
+                        deltas.merge(appointment.getVaccineName(), type == JournalRecord.Type.RESERVE ? -1 : 1,
+                                Integer::sum);
+                    }
+                    from = to;
+                }
+            } finally {
+                cm.closeConnection();
+            }
+            vaccines.applyDeltas(deltas, node, fresh.get(fresh.size() - 1).getSequence());
+            ConnectionManager.commitSharedTransaction();
+        } catch (SQLException | RuntimeException e) {
+            ConnectionManager.rollbackSharedTransaction();
+            throw e;
+        }
+    }
+
+    @Override
+    public void skip(long sequence) throws SQLException {
+        vaccines.applyDeltas(Collections.emptyMap(), node, sequence);
+    }
+
+    private void book(Connection con, List<Appointment> booked) throws SQLException {
+        PreparedStatement claim = con.prepareStatement("DELETE FROM Availabilities WHERE Time = ? AND Username = ?");
+        for (Appointment appointment : booked) {
+            claim.setDate(1, appointment.getTime());
+            claim.setString(2, appointment.getCaregiverName());
+            claim.addBatch();
+        }
+        claim.executeBatch();
+        boolean identity = identityInsert(con);
+        if (identity) {
+            con.createStatement().execute("SET IDENTITY_INSERT Appointments ON");
+        }
+        try {
+            PreparedStatement insert = con.prepareStatement(
+                    "INSERT INTO Appointments (ID, Time, VaccineName, CaregiverName, PatientName) VALUES (?, ?, ?, ?, ?)");
+            for (Appointment appointment : booked) {
+                insert.setInt(1, appointment.getId());
+                insert.setDate(2, appointment.getTime());
+                insert.setString(3, appointment.getVaccineName());
+                insert.setString(4, appointment.getCaregiverName());
+                insert.setString(5, appointment.getPatientName());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        } finally {
+            if (identity) {
+                // session-wide, and the connection goes back to the pool
+                con.createStatement().execute("SET IDENTITY_INSERT Appointments OFF");
+            }
+        }
+    }
+
+    // the same statements as a cancel, minus the dose updates, which applyDeltas makes
+    private static void release(Connection con, List<Appointment> cancelled) throws SQLException {
+        PreparedStatement delete = con.prepareStatement("DELETE FROM Appointments WHERE ID = ?");
+        for (Appointment appointment : cancelled) {
+            delete.setInt(1, appointment.getId());
+            delete.addBatch();
+        }
+        delete.executeBatch();
+        PreparedStatement reinstate = con.prepareStatement("INSERT INTO Availabilities (Time, Username) " +
+                "SELECT CAST(? AS date), CAST(? AS varchar(255)) WHERE NOT EXISTS " +
+                "(SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)");
+        for (Appointment appointment : cancelled) {
+            reinstate.setDate(1, appointment.getTime());
+            reinstate.setString(2, appointment.getCaregiverName());
+            reinstate.setDate(3, appointment.getTime());
+            reinstate.setString(4, appointment.getCaregiverName());
+            reinstate.addBatch();
+        }
+        reinstate.executeBatch();
+    }
+
+    private boolean identityInsert(Connection con) throws SQLException {
+        Boolean needed = identityInsert;
+        if (needed == null) {
+            needed = con.getMetaData().getDatabaseProductName().contains("SQL Server");
+            identityInsert = needed;
+        }
+        return needed;
+    }
+}
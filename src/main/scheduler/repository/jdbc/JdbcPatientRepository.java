@@ -0,0 +1,158 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Patient;
+import scheduler.repository.PatientRepository;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public class JdbcPatientRepository implements PatientRepository {
+    private static final int FETCH_SIZE = 5000;
+
+    @Override
+    public void save(Patient patient) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addPatient = "INSERT INTO Patients (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)";
+        try {
+            PreparedStatement statement = con.prepareStatement(addPatient);
+            statement.setString(1, patient.getUsername());
+            statement.setBytes(2, patient.getSalt());
+            statement.setBytes(3, patient.getHash());
+            statement.setInt(4, patient.getIterations());
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            // rethrown as is so callers can tell a taken username (primary key violation) from other failures
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int saveAll(List<Patient> patients) throws SQLException {
+        if (patients.isEmpty()) {
+            return 0;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            List<String> usernames = new ArrayList<>();
+            for (Patient patient : patients) {
+                usernames.add(patient.getUsername());
+            }
+            Set<String> existing = BulkQueries.findExisting(con, "Patients", "Username", usernames);
+            PreparedStatement statement = con.prepareStatement("INSERT INTO Patients (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)");
+            int inserted = 0;
+            for (Patient patient : patients) {
+                if (existing.add(patient.getUsername())) {
+                    statement.setString(1, patient.getUsername());
+                    statement.setBytes(2, patient.getSalt());
+                    statement.setBytes(3, patient.getHash());
+                    statement.setInt(4, patient.getIterations());
+                    statement.addBatch();
+                    inserted++;
+                }
+            }
+            if (inserted > 0) {
+                statement.executeBatch();
+            }
+            con.commit();
+            return inserted;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // only whether the row exists; the salt and hash stay on the server
+        String selectUsername = "SELECT 1 FROM Patients WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(selectUsername);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            PreparedStatement statement = con.prepareStatement("SELECT Username FROM Patients");
+            statement.setFetchSize(FETCH_SIZE);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                action.accept(resultSet.getString(1));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Patient find(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getPatient = "SELECT Salt, Hash, Iterations FROM Patients WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(getPatient);
+            statement.setString(1, username);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                byte[] salt = resultSet.getBytes("Salt");
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                byte[] hash = Util.trim(resultSet.getBytes("Hash"));
+                // accounts created before iterations were stored have NULL here
+                int iterations = resultSet.getInt("Iterations");
+                if (resultSet.wasNull()) {
+                    iterations = Util.HASH_STRENGTH;
+                }
+                return new Patient.PatientBuilder(username, salt, hash, iterations).build();
+            }
+            return null;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String updateCredentials = "UPDATE Patients SET Salt = ?, Hash = ?, Iterations = ? WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(updateCredentials);
+            statement.setBytes(1, salt);
+            statement.setBytes(2, hash);
+            statement.setInt(3, iterations);
+            statement.setString(4, username);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
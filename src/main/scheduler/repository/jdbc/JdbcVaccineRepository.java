@@ -0,0 +1,184 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Vaccine;
+import scheduler.repository.VaccineRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class JdbcVaccineRepository implements VaccineRepository {
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
+        try {
+            PreparedStatement statement = con.prepareStatement(addDoses);
+            statement.setString(1, vaccine.getVaccineName());
+            statement.setInt(2, vaccine.getAvailableDoses());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Vaccine find(String vaccineName) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(getVaccine);
+            statement.setString(1, vaccineName);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                return new Vaccine.VaccineBuilder(vaccineName, resultSet.getInt("Doses")).build();
+            }
+            return null;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String dosesQuery = "SELECT Name, Doses FROM Vaccines";
+        try {
+            PreparedStatement statement = con.prepareStatement(dosesQuery);
+            ResultSet resultSet = statement.executeQuery();
+            List<Vaccine> vaccines = new ArrayList<>();
+            while (resultSet.next()) {
+                vaccines.add(new Vaccine.VaccineBuilder(resultSet.getString("Name"), resultSet.getInt("Doses")).build());
+            }
+            return vaccines;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int delta) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        // relative update, so concurrent add_doses calls cannot overwrite each other
+        String updateDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(updateDoses);
+            statement.setInt(1, delta);
+            statement.setString(2, vaccineName);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            List<String> names = new ArrayList<>(deltas.keySet());
+            PreparedStatement update = con.prepareStatement("UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?");
+            for (String name : names) {
+                update.setInt(1, deltas.get(name));
+                update.setString(2, name);
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            // whatever the update did not touch is a new vaccine
+            PreparedStatement insert = con.prepareStatement("INSERT INTO Vaccines VALUES (?, ?)");
+            boolean inserting = false;
+            for (int i = 0; i < names.size(); i++) {
+                if (counts[i] == 0) {
+                    insert.setString(1, names.get(i));
+                    insert.setInt(2, deltas.get(names.get(i)));
+                    insert.addBatch();
+                    inserting = true;
+                }
+            }
+            if (inserting) {
+                insert.executeBatch();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // The deltas and the node's new sequence number commit together, so a batch that is retried after
+    // a crash (or after losing the commit acknowledgement) is recognised and not applied twice
+    @Override
+    public boolean applyDeltas(Map<String, Integer> deltas, String node, long sequence) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            con.setAutoCommit(false);
+            if (lastAppliedSequence(con, node) >= sequence) {
+                con.rollback();
+                return false;
+            }
+            PreparedStatement update = con.prepareStatement("UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?");
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                update.setInt(1, entry.getValue());
+                update.setString(2, entry.getKey());
+                update.addBatch();
+            }
+            update.executeBatch();
+            PreparedStatement mark = con.prepareStatement("UPDATE InventoryFlushes SET Sequence = ? WHERE Node = ?");
+            mark.setLong(1, sequence);
+            mark.setString(2, node);
+            if (mark.executeUpdate() == 0) {
+                PreparedStatement first = con.prepareStatement("INSERT INTO InventoryFlushes VALUES (?, ?)");
+                first.setString(1, node);
+                first.setLong(2, sequence);
+                first.executeUpdate();
+            }
+            con.commit();
+            return true;
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public long lastAppliedSequence(String node) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            return lastAppliedSequence(con, node);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static long lastAppliedSequence(Connection con, String node) throws SQLException {
+        // each node flushes from a single thread, so nobody else races us on this node's row
+        PreparedStatement statement = con.prepareStatement("SELECT Sequence FROM InventoryFlushes WHERE Node = ?");
+        statement.setString(1, node);
+        ResultSet resultSet = statement.executeQuery();
+        return resultSet.next() ? resultSet.getLong("Sequence") : 0;
+    }
+}
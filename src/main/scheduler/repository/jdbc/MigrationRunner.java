@@ -0,0 +1,250 @@
+package scheduler.repository.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SqlErrors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+// Brings the database schema up to date at startup from the numbered scripts in /resources/migrations,
+// listed in order in migrations.txt. Each script runs in its own transaction together with the insert
+// of its SchemaVersion row, so a database is never left recorded at a version it does not have, and
+// when two nodes start at once the second one's insert waits on the first one's and then fails on
+// the primary key, and it skips the script.
+//
+// A database created by hand from create.sql before there were migrations has the baseline tables but
+// no SchemaVersion; it is recorded as being at V1, and the scripts after it are written so they can
+// meet columns and indexes that were added to such databases by hand.
+public class MigrationRunner {
+
+    private static final String DIRECTORY = "/resources/migrations/";
+    private static final String INDEX = DIRECTORY + "migrations.txt";
+
+    private MigrationRunner() {
+    }
+
+    // Applies every migration the database does not have yet and returns how many that was
+    public static int migrate() throws SQLException {
+        List<Migration> migrations = readIndex();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            String dialect = dialect(con.getMetaData());
+            if (!tableExists(con.getMetaData(), "SchemaVersion")) {
+                createVersionTable(con, migrations.get(0));
+            }
+            Map<Integer, Long> applied = appliedVersions(con);
+            int count = 0;
+            for (Migration migration : migrations) {
+                String script = migration.script(dialect);
+                Long checksum = applied.get(migration.version);
+                if (checksum == null) {
+                    if (apply(con, migration, script)) {
+                        count++;
+                    }
+                } else if (checksum != 0 && checksum != checksum(script)) {
+                    System.out.println("Warning: migration " + migration + " was changed after it was applied");
+                }
+            }
+            return count;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static boolean apply(Connection con, Migration migration, String script) throws SQLException {
+        long start = System.nanoTime();
+        con.setAutoCommit(false);
+        try {
+            PreparedStatement record = con.prepareStatement(
+                    "INSERT INTO SchemaVersion (Version, Description, Checksum, AppliedAt) VALUES (?, ?, ?, ?)");
+            record.setInt(1, migration.version);
+            record.setString(2, migration.description);
+            record.setLong(3, checksum(script));
+            record.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            record.executeUpdate();
+            Statement statement = con.createStatement();
+            for (String sql : statements(script)) {
+                statement.execute(sql);
+            }
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            if (SqlErrors.isIntegrityViolation(e)) {
+                // another node applied it while we were looking
+                return false;
+            }
+            forget(con, migration);
+            throw new SQLException("Migration " + migration + " failed: " + e.getMessage(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+        System.out.println(String.format("Applied migration %s in %d ms", migration,
+                (System.nanoTime() - start) / 1_000_000));
+        return true;
+    }
+
+    // Some databases (H2) commit DDL on their own, taking the SchemaVersion row of a failed script with it
+    private static void forget(Connection con, Migration migration) {
+        try {
+            PreparedStatement delete = con.prepareStatement("DELETE FROM SchemaVersion WHERE Version = ?");
+            delete.setInt(1, migration.version);
+            delete.executeUpdate();
+            con.commit();
+        } catch (SQLException e) {
+            System.out.println("Could not clear the version row of " + migration + ": " + e.getMessage());
+        }
+    }
+
+    private static void createVersionTable(Connection con, Migration baseline) throws SQLException {
+        boolean handMade = tableExists(con.getMetaData(), "Caregivers");
+        Statement statement = con.createStatement();
+        try {
+            statement.execute("CREATE TABLE SchemaVersion (Version int, Description varchar(255), Checksum bigint, " +
+                    "AppliedAt datetime, PRIMARY KEY (Version))");
+        } catch (SQLException e) {
+            // another node created it first
+            if (tableExists(con.getMetaData(), "SchemaVersion")) {
+                return;
+            }
+            throw e;
+        }
+        if (handMade) {
+            // checksum 0: we never ran it, so there is nothing to compare
+            PreparedStatement record = con.prepareStatement(
+                    "INSERT INTO SchemaVersion (Version, Description, Checksum, AppliedAt) VALUES (?, ?, 0, ?)");
+            record.setInt(1, baseline.version);
+            record.setString(2, baseline.description + " (existing schema)");
+            record.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+            try {
+                record.executeUpdate();
+            } catch (SQLException e) {
+                if (!SqlErrors.isIntegrityViolation(e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static Map<Integer, Long> appliedVersions(Connection con) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        ResultSet resultSet = con.createStatement().executeQuery("SELECT Version, Checksum FROM SchemaVersion");
+        while (resultSet.next()) {
+            applied.put(resultSet.getInt("Version"), resultSet.getLong("Checksum"));
+        }
+        return applied;
+    }
+
+    // unquoted names are stored upper case by some databases (H2) and as written by others
+    private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+        for (String name : new String[]{table, table.toUpperCase()}) {
+            try (ResultSet tables = metaData.getTables(null, null, name, new String[]{"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String dialect(DatabaseMetaData metaData) throws SQLException {
+        String product = metaData.getDatabaseProductName();
+        if (product.contains("SQL Server")) {
+            return "sqlserver";
+        }
+        return product.split(" ")[0].toLowerCase();
+    }
+
+    // scripts hold plain statements separated by semicolons; -- comments are dropped first
+    private static List<String> statements(String script) {
+        String code = script.lines()
+                .filter(line -> !line.strip().startsWith("--"))
+                .collect(Collectors.joining("\n"));
+        List<String> statements = new ArrayList<>();
+        for (String sql : code.split(";")) {
+            if (!sql.isBlank()) {
+                statements.add(sql.strip());
+            }
+        }
+        return statements;
+    }
+
+    private static long checksum(String script) {
+        CRC32 crc = new CRC32();
+        crc.update(script.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static List<Migration> readIndex() throws SQLException {
+        List<Migration> migrations = new ArrayList<>();
+        for (String line : read(INDEX).split("\n")) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            migrations.add(new Migration(line));
+        }
+        if (migrations.isEmpty()) {
+            throw new SQLException(INDEX + " lists no migrations");
+        }
+        return migrations;
+    }
+
+    private static String read(String resource) throws SQLException {
+        InputStream in = MigrationRunner.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new SQLException("Could not find " + resource + " on the classpath");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } catch (IOException e) {
+            throw new SQLException("Could not read " + resource, e);
+        }
+    }
+
+    // V<version>__<description>
+    private static class Migration {
+        private final String name;
+        private final int version;
+        private final String description;
+
+        private Migration(String name) throws SQLException {
+            int separator = name.indexOf("__");
+            if (!name.startsWith("V") || separator < 0) {
+                throw new SQLException("Migration names look like V7__what_it_does, not " + name);
+            }
+            this.name = name;
+            this.version = Integer.parseInt(name.substring(1, separator));
+            this.description = name.substring(separator + 2).replace('_', ' ');
+        }
+
+        private String script(String dialect) throws SQLException {
+            String specific = DIRECTORY + name + "." + dialect + ".sql";
+            if (MigrationRunner.class.getResource(specific) != null) {
+                return read(specific);
+            }
+            return read(DIRECTORY + name + ".sql");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
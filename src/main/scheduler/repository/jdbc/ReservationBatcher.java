@@ -0,0 +1,595 @@
+package scheduler.repository.jdbc;
+
+import scheduler.cache.InventoryCache;
+import scheduler.db.ConnectionManager;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.AppointmentRepository;
+import scheduler.repository.CaregiverSelector;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Group commit for reserve: reservations arriving within `windowMillis` of each other (at most
+// `maxBatch` of them) are booked together by one thread in one transaction:
+//   - one read of the free caregivers per date, and of the doses left per vaccine
+//   - caregivers and doses handed out in memory, in arrival order
+//   - one batched Availabilities delete, one Doses update per vaccine, one batched Appointments insert
+//   - one commit
+// Every caller waits on its own future and gets its own appointment or rejection, with the same
+// messages as a reservation on its own. A claim that loses to a reservation from outside the batch
+// moves on to another caregiver; if the batch transaction fails anyway, each of its reservations is
+// run on its own through the delegate so one bad request cannot sink the others. A failed commit is
+// different, the server may have committed before the connection gave out: the batch is looked up
+// instead, and its callers get their appointments if it landed and the error if not.
+public class ReservationBatcher implements AppointmentRepository {
+    // rounds of claims before a reservation whose caregivers keep being taken is turned away
+    private static final int CLAIM_ROUNDS = 3;
+    // extra caregivers read per date, to move on to when a claim loses a race
+    private static final int SPARE_CANDIDATES = 8;
+
+    private final AppointmentRepository delegate;
+    // when set, doses are taken from the in-memory inventory instead of the Vaccines table
+    private final InventoryCache inventory;
+    private final CaregiverSelector selector;
+    private final long windowMillis;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean closed = false;
+
+    // ReserveBatchWindowMs (0, the default, means no batching) and ReserveBatchMax (default 256); null when off
+    public static ReservationBatcher fromEnvironment(AppointmentRepository delegate, InventoryCache inventory,
+                                                     CaregiverSelector selector) {
+        long windowMillis = Util.longEnv("ReserveBatchWindowMs", 0);
+        if (windowMillis <= 0) {
+            return null;
+        }
+        int maxBatch = Util.intEnv("ReserveBatchMax", 256);
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("ReserveBatchMax must be at least 1");
+        }
+        return new ReservationBatcher(delegate, inventory, selector, windowMillis, maxBatch);
+    }
+
+    public ReservationBatcher(AppointmentRepository delegate, InventoryCache inventory, CaregiverSelector selector,
+                              long windowMillis, int maxBatch) {
+        this.delegate = delegate;
+        this.inventory = inventory;
+        this.selector = selector;
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+        this.worker = new Thread(this::run, "reservation-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientName) throws SQLException {
+        if (closed || ConnectionManager.inSharedTransaction()) {
+            // a batch of commands already shares one transaction, which this thread has to use
+            return delegate.reserve(d, vaccineName, patientName);
+        }
+        Request request = new Request(d, vaccineName, patientName);
+        queue.add(request);
+        if (closed && queue.remove(request)) {
+            // closed while we were queueing, and nobody is going to take it any more
+            return delegate.reserve(d, vaccineName, patientName);
+        }
+        try {
+            return request.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the reservation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    // reservations already queued are still booked
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Request> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < maxBatch) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // closing: book what was collected and whatever is still queued, then stop
+                queue.drainTo(batch);
+                book(batch);
+                return;
+            }
+            book(batch);
+        }
+    }
+
+    private void book(List<Request> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Metrics.count("reserve.batches");
+        if (batch.size() == 1) {
+            bookAlone(batch.get(0));
+            return;
+        }
+        List<Request> pending = new ArrayList<>();
+        try {
+            bookTogether(batch);
+            for (Request request : batch) {
+                request.complete();
+            }
+        } catch (SQLException | RuntimeException e) {
+            Metrics.count("reserve.batch_fallbacks");
+            for (Request request : batch) {
+                request.reset();
+                pending.add(request);
+            }
+        }
+        for (Request request : pending) {
+            bookAlone(request);
+        }
+    }
+
+    private void bookAlone(Request request) {
+        try {
+            request.result.complete(delegate.reserve(request.date, request.vaccineName, request.patientName));
+        } catch (SQLException | RuntimeException e) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    // Throws only when nothing was committed, so the batch can be booked again one reservation at a time
+    private void bookTogether(List<Request> batch) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        List<Request> taken = new ArrayList<>();
+        List<Request> booked = new ArrayList<>();
+        SQLException commitFailure = null;
+        try {
+            try {
+                con.setAutoCommit(false);
+                Map<Date, List<Request>> byDate = new TreeMap<>();
+                for (Request request : batch) {
+                    byDate.computeIfAbsent(request.date, key -> new ArrayList<>()).add(request);
+                }
+                claimCaregivers(con, byDate);
+                Map<String, Integer> doses = takeDoses(con, batch, taken);
+                for (Request request : batch) {
+                    if (request.rejection == null) {
+                        booked.add(request);
+                    }
+                }
+                if (!booked.isEmpty()) {
+                    if (inventory == null) {
+                        writeDoses(con, doses);
+                    }
+                    insertAppointments(con, booked);
+                }
+                if (!taken.isEmpty()) {
+                    inventory.sync();
+                }
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                giveBack(taken);
+                throw e;
+            }
+            try {
+                con.commit();
+            } catch (SQLException e) {
+                commitFailure = e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        if (commitFailure != null) {
+            Metrics.count("reserve.batch_commit_failures");
+            settle(booked, taken, commitFailure);
+        }
+        for (Request request : booked) {
+            if (request.rejection == null) {
+                selector.booked(request.date, request.caregiver);
+            }
+        }
+    }
+
+    // The commit of the batch failed, and whether the server got to commit it is not known. Booking the
+    // batch again could book it twice, so its appointments are looked up instead: found, the batch
+    // stands; missing, the doses go back and the callers get the commit's error; if the lookup fails
+    // too, the callers get told the outcome is unknown and the doses stay taken, as the safe side.
+    private void settle(List<Request> booked, List<Request> taken, SQLException commitFailure) {
+        int found;
+        try {
+            found = findBooked(booked);
+        } catch (SQLException | RuntimeException e) {
+            commitFailure.addSuppressed(e);
+            fail(booked, new SQLException("The reservation may or may not have been booked: "
+                    + commitFailure.getMessage(), "08007", commitFailure));
+            return;
+        }
+        if (found == booked.size()) {
+            return;
+        }
+        if (found == 0) {
+            giveBack(taken);
+            fail(booked, commitFailure);
+            return;
+        }
+        // a transaction commits all or nothing, so some of these rows belong to someone else
+        fail(booked, new SQLException("The reservation may or may not have been booked: "
+                + commitFailure.getMessage(), "08007", commitFailure));
+    }
+
+    private static void fail(List<Request> booked, SQLException failure) {
+        for (Request request : booked) {
+            request.rejection = failure;
+        }
+    }
+
+    private void giveBack(List<Request> taken) {
+        for (Request request : taken) {
+            inventory.giveBack(request.vaccineName);
+        }
+    }
+
+    // looks the batch's appointments up on a connection of its own and returns how many are there
+    private static int findBooked(List<Request> booked) throws SQLException {
+        if (booked.isEmpty()) {
+            return 0;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        try {
+            for (Request request : booked) {
+                request.id = -1;
+            }
+            return matchIds(con, booked);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Gives every request a caregiver it has deleted the availability row of, or the "no caregivers"
+    // rejection. Claims that lose to a reservation outside the batch go to the next candidate.
+    private void claimCaregivers(Connection con, Map<Date, List<Request>> byDate) throws SQLException {
+        try (PreparedStatement findAvailability = con.prepareStatement("SELECT Username FROM Availabilities WHERE Time = ?");
+             PreparedStatement claim = con.prepareStatement("DELETE FROM Availabilities WHERE Time = ? AND Username = ?")) {
+            claimCaregivers(findAvailability, claim, byDate);
+        }
+    }
+
+    private void claimCaregivers(PreparedStatement findAvailability, PreparedStatement claim,
+                                 Map<Date, List<Request>> byDate) throws SQLException {
+        Map<Date, List<Request>> unclaimed = byDate;
+        for (int round = 0; round < CLAIM_ROUNDS && !unclaimed.isEmpty(); round++) {
+            List<Request> claiming = new ArrayList<>();
+            for (Map.Entry<Date, List<Request>> entry : unclaimed.entrySet()) {
+                Date d = entry.getKey();
+                List<Request> requests = entry.getValue();
+                findAvailability.setMaxRows(requests.size() + SPARE_CANDIDATES);
+                findAvailability.setDate(1, d);
+                List<String> candidates = new ArrayList<>();
+                try (ResultSet resultSet = findAvailability.executeQuery()) {
+                    while (resultSet.next()) {
+                        candidates.add(resultSet.getString("Username"));
+                    }
+                }
+                Deque<String> order = new ArrayDeque<>(selector.order(d, candidates));
+                for (Request request : requests) {
+                    if (order.isEmpty()) {
+                        request.rejection = new IllegalStateException("No available caregivers for this date!");
+                    } else {
+                        request.caregiver = order.poll();
+                        claim.setDate(1, d);
+                        claim.setString(2, request.caregiver);
+                        claim.addBatch();
+                        claiming.add(request);
+                    }
+                }
+            }
+            if (claiming.isEmpty()) {
+                return;
+            }
+            int[] claimed = claim.executeBatch();
+            Map<Date, List<Request>> lost = new TreeMap<>();
+            for (int i = 0; i < claiming.size(); i++) {
+                if (claimed[i] == 0) {
+                    Request request = claiming.get(i);
+                    request.caregiver = null;
+                    lost.computeIfAbsent(request.date, key -> new ArrayList<>()).add(request);
+                }
+            }
+            unclaimed = lost;
+        }
+        for (List<Request> requests : unclaimed.values()) {
+            for (Request request : requests) {
+                request.rejection = new IllegalStateException("No available caregivers for this date!");
+            }
+        }
+    }
+
+    // Hands out doses, in arrival order, to the requests that got a caregiver and returns how many were
+    // taken per vaccine. A request left without a dose gives its caregiver back.
+    private Map<String, Integer> takeDoses(Connection con, List<Request> batch, List<Request> taken)
+            throws SQLException {
+        Map<String, Integer> left = inventory == null ? readDoses(con, batch) : null;
+        Map<String, Integer> doses = new TreeMap<>();
+        List<Request> giveBack = new ArrayList<>();
+        for (Request request : batch) {
+            if (request.rejection != null) {
+                continue;
+            }
+            String problem;
+            if (inventory != null) {
+                // forced to disk together before the commit
+                InventoryCache.Take take = inventory.takeBeforeSync(request.vaccineName);
+                problem = take == InventoryCache.Take.TAKEN ? null : take == InventoryCache.Take.UNKNOWN_VACCINE
+                        ? "Our vaccine storage does not have this vaccine!" : "No available doses for this vaccine!";
+                if (problem == null) {
+                    taken.add(request);
+                }
+            } else {
+                Integer available = left.get(request.vaccineName);
+                problem = available == null ? "Our vaccine storage does not have this vaccine!"
+                        : available <= 0 ? "No available doses for this vaccine!" : null;
+                if (problem == null) {
+                    left.put(request.vaccineName, available - 1);
+                }
+            }
+            if (problem == null) {
+                doses.merge(request.vaccineName, 1, Integer::sum);
+            } else {
+                request.rejection = new IllegalStateException(problem);
+                giveBack.add(request);
+            }
+        }
+        if (!giveBack.isEmpty()) {
+            try (PreparedStatement reinstate = con.prepareStatement("INSERT INTO Availabilities VALUES (?, ?)")) {
+                for (Request request : giveBack) {
+                    reinstate.setDate(1, request.date);
+                    reinstate.setString(2, request.caregiver);
+                    reinstate.addBatch();
+                    request.caregiver = null;
+                }
+                reinstate.executeBatch();
+            }
+        }
+        return doses;
+    }
+
+    private static Map<String, Integer> readDoses(Connection con, List<Request> batch) throws SQLException {
+        List<String> names = new ArrayList<>();
+        for (Request request : batch) {
+            if (request.rejection == null && !names.contains(request.vaccineName)) {
+                names.add(request.vaccineName);
+            }
+        }
+        Map<String, Integer> left = new HashMap<>();
+        if (names.isEmpty()) {
+            return left;
+        }
+        try (PreparedStatement statement = con.prepareStatement("SELECT Name, Doses FROM Vaccines WHERE Name IN (" +
+                String.join(", ", Collections.nCopies(names.size(), "?")) + ")")) {
+            for (int i = 0; i < names.size(); i++) {
+                statement.setString(i + 1, names.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    left.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                }
+            }
+        }
+        return left;
+    }
+
+    // A count that changed since it was read (a reservation outside the batch) fails the whole batch,
+    // which is then booked one reservation at a time
+    private static void writeDoses(Connection con, Map<String, Integer> doses) throws SQLException {
+        try (PreparedStatement update = con.prepareStatement(
+                "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?")) {
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                update.setInt(1, entry.getValue());
+                update.setString(2, entry.getKey());
+                update.setInt(3, entry.getValue());
+                update.addBatch();
+            }
+            for (int count : update.executeBatch()) {
+                if (count == 0) {
+                    throw new SQLException("Dose counts changed while the batch was being booked");
+                }
+            }
+        }
+    }
+
+    private static void insertAppointments(Connection con, List<Request> booked) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement insert = con.prepareStatement(
+                "INSERT INTO Appointments (Time, VaccineName, CaregiverName, PatientName) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (Request request : booked) {
+                insert.setDate(1, request.date);
+                insert.setString(2, request.vaccineName);
+                insert.setString(3, request.caregiver);
+                insert.setString(4, request.patientName);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                while (keys.next()) {
+                    ids.add(keys.getInt(1));
+                }
+            }
+        }
+        if (ids.size() == booked.size()) {
+            for (int i = 0; i < booked.size(); i++) {
+                booked.get(i).id = ids.get(i);
+            }
+        } else {
+            // not every driver returns the keys of a batch; a caregiver has one appointment per day at most
+            lookUpIds(con, booked);
+        }
+    }
+
+    private static void lookUpIds(Connection con, List<Request> booked) throws SQLException {
+        if (matchIds(con, booked) < booked.size()) {
+            throw new SQLException("No appointment ID was generated");
+        }
+    }
+
+    // Gives the requests the IDs of their appointments, found by date, caregiver and patient, and returns
+    // how many were found
+    private static int matchIds(Connection con, List<Request> booked) throws SQLException {
+        Map<Date, Map<String, Request>> byDate = new TreeMap<>();
+        for (Request request : booked) {
+            byDate.computeIfAbsent(request.date, key -> new LinkedHashMap<>()).put(request.caregiver, request);
+        }
+        for (Map.Entry<Date, Map<String, Request>> entry : byDate.entrySet()) {
+            List<String> caregivers = new ArrayList<>(entry.getValue().keySet());
+            for (int from = 0; from < caregivers.size(); from += BulkQueries.MAX_IN_PARAMETERS) {
+                List<String> chunk = caregivers.subList(from,
+                        Math.min(caregivers.size(), from + BulkQueries.MAX_IN_PARAMETERS));
+                try (PreparedStatement statement = con.prepareStatement("SELECT ID, CaregiverName, PatientName " +
+                        "FROM Appointments WHERE Time = ? AND CaregiverName IN (" +
+                        String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")")) {
+                    statement.setDate(1, entry.getKey());
+                    for (int i = 0; i < chunk.size(); i++) {
+                        statement.setString(i + 2, chunk.get(i));
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            Request request = entry.getValue().get(resultSet.getString("CaregiverName"));
+                            if (request.patientName.equals(resultSet.getString("PatientName"))) {
+                                request.id = resultSet.getInt("ID");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        int found = 0;
+        for (Request request : booked) {
+            if (request.id >= 0) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        return delegate.cancel(ids, username, caregiver);
+    }
+
+    @Override
+    public List<Appointment> cancelByCaregiver(String caregiverName, Date d) throws SQLException {
+        return delegate.cancelByCaregiver(caregiverName, d);
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientName) throws SQLException {
+        return delegate.findByPatient(patientName);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverName) throws SQLException {
+        return delegate.findByCaregiver(caregiverName);
+    }
+
+    @Override
+    public List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) throws SQLException {
+        return delegate.findByIds(ids, username, caregiver);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiverOn(String caregiverName, Date d) throws SQLException {
+        return delegate.findByCaregiverOn(caregiverName, d);
+    }
+
+    @Override
+    public int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return delegate.streamByPatient(patientName, query, action);
+    }
+
+    @Override
+    public int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action)
+            throws SQLException {
+        return delegate.streamByCaregiver(caregiverName, query, action);
+    }
+
+    // One caller's reservation. Only the batcher thread touches the fields until the future completes.
+    private static class Request {
+        private final Date date;
+        private final String vaccineName;
+        private final String patientName;
+        private final CompletableFuture<Appointment> result = new CompletableFuture<>();
+        private String caregiver = null;
+        // a rejection, or the error of a batch whose commit failed
+        private Exception rejection = null;
+        private int id = -1;
+
+        private Request(Date date, String vaccineName, String patientName) {
+            this.date = date;
+            this.vaccineName = vaccineName;
+            this.patientName = patientName;
+        }
+
+        private void complete() {
+            if (rejection != null) {
+                result.completeExceptionally(rejection);
+            } else {
+                result.complete(new Appointment.AppointmentBuilder(id, date, vaccineName, caregiver, patientName).build());
+            }
+        }
+
+        // the batch was rolled back; forget what it handed out
+        private void reset() {
+            caregiver = null;
+            rejection = null;
+            id = -1;
+        }
+    }
+}
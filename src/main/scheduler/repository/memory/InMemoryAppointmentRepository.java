@@ -0,0 +1,164 @@
+package scheduler.repository.memory;
+
+import scheduler.model.Appointment;
+import scheduler.repository.AppointmentQuery;
+import scheduler.repository.AppointmentRepository;
+import scheduler.repository.CaregiverSelector;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class InMemoryAppointmentRepository implements AppointmentRepository {
+    // how many free caregivers the selector gets to order, like the JDBC repository
+    private static final int CLAIM_CANDIDATES = 32;
+
+    private final InMemoryStorage store;
+    private final CaregiverSelector selector;
+
+    public InMemoryAppointmentRepository(InMemoryStorage store) {
+        this(store, CaregiverSelector.fromEnvironment());
+    }
+
+    public InMemoryAppointmentRepository(InMemoryStorage store, CaregiverSelector selector) {
+        this.store = store;
+        this.selector = selector;
+    }
+
+    // Same claim-then-decrement protocol as the JDBC repository: removing the caregiver from the
+    // day's set claims them, and if no dose can be taken the claim is handed back
+    @Override
+    public Appointment reserve(Date d, String vaccineName, String patientName) {
+        NavigableSet<String> available = store.availabilities.get(d);
+        String caregiver = available == null ? null : claim(d, available);
+        if (caregiver == null) {
+            throw new IllegalStateException("No available caregivers for this date!");
+        }
+        boolean[] taken = new boolean[1];
+        Integer doses = store.vaccines.computeIfPresent(vaccineName, (name, current) -> {
+            if (current > 0) {
+                taken[0] = true;
+                return current - 1;
+            }
+            return current;
+        });
+        if (!taken[0]) {
+            available.add(caregiver);
+            if (doses == null) {
+                throw new IllegalStateException("Our vaccine storage does not have this vaccine!");
+            }
+            throw new IllegalStateException("No available doses for this vaccine!");
+        }
+        int id = store.nextAppointmentId.getAndIncrement();
+        Appointment appointment = new Appointment.AppointmentBuilder(id, d, vaccineName, caregiver, patientName).build();
+        store.appointments.put(id, appointment);
+        selector.booked(d, caregiver);
+        return appointment;
+    }
+
+    // the first caregiver in the selector's order that nobody else removed in the meantime
+    private String claim(Date d, NavigableSet<String> available) {
+        while (!available.isEmpty()) {
+            List<String> candidates = new ArrayList<>(CLAIM_CANDIDATES);
+            for (String candidate : available) {
+                candidates.add(candidate);
+                if (candidates.size() == CLAIM_CANDIDATES) {
+                    break;
+                }
+            }
+            for (String candidate : selector.order(d, candidates)) {
+                if (available.remove(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Appointment> cancel(List<Integer> ids, String username, boolean caregiver) {
+        return release(findByIds(ids, username, caregiver));
+    }
+
+    @Override
+    public List<Appointment> cancelByCaregiver(String caregiverName, Date d) {
+        return release(findByCaregiverOn(caregiverName, d));
+    }
+
+    // removing the appointment decides who cancelled it, like the JDBC delete count
+    private List<Appointment> release(List<Appointment> found) {
+        List<Appointment> cancelled = new ArrayList<>();
+        for (Appointment appointment : found) {
+            if (store.appointments.remove(appointment.getId(), appointment)) {
+                store.vaccines.computeIfPresent(appointment.getVaccineName(), (name, doses) -> doses + 1);
+                store.availableOn(appointment.getTime()).add(appointment.getCaregiverName());
+                selector.cancelled(appointment.getTime(), appointment.getCaregiverName());
+                cancelled.add(appointment);
+            }
+        }
+        return cancelled;
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patientName) {
+        return findBy(appointment -> appointment.getPatientName().equals(patientName));
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiverName) {
+        return findBy(appointment -> appointment.getCaregiverName().equals(caregiverName));
+    }
+
+    @Override
+    public List<Appointment> findByIds(List<Integer> ids, String username, boolean caregiver) {
+        List<Appointment> found = new ArrayList<>();
+        for (Integer id : ids) {
+            Appointment appointment = store.appointments.get(id);
+            if (appointment != null && username.equals(caregiver
+                    ? appointment.getCaregiverName() : appointment.getPatientName())) {
+                found.add(appointment);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Appointment> findByCaregiverOn(String caregiverName, Date d) {
+        return findBy(appointment -> appointment.getCaregiverName().equals(caregiverName)
+                && appointment.getTime().equals(d));
+    }
+
+    private List<Appointment> findBy(Predicate<Appointment> filter) {
+        List<Appointment> appointments = new ArrayList<>();
+        for (Appointment appointment : store.appointments.values()) {
+            if (filter.test(appointment)) {
+                appointments.add(appointment);
+            }
+        }
+        appointments.sort(Comparator.comparingInt(Appointment::getId));
+        return appointments;
+    }
+
+    @Override
+    public int streamByPatient(String patientName, AppointmentQuery query, Consumer<Appointment> action) {
+        return streamBy(appointment -> appointment.getPatientName().equals(patientName), query, action);
+    }
+
+    @Override
+    public int streamByCaregiver(String caregiverName, AppointmentQuery query, Consumer<Appointment> action) {
+        return streamBy(appointment -> appointment.getCaregiverName().equals(caregiverName), query, action);
+    }
+
+    private int streamBy(Predicate<Appointment> filter, AppointmentQuery query, Consumer<Appointment> action) {
+        List<Appointment> page = findBy(filter.and(query::matches));
+        page.sort(Comparator.comparing(Appointment::getTime).thenComparingInt(Appointment::getId));
+        for (Appointment appointment : page.subList(0, Math.min(page.size(), query.getLimit()))) {
+            action.accept(appointment);
+        }
+        return Math.min(page.size(), query.getLimit() + 1);
+    }
+}
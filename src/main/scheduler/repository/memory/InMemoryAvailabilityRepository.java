@@ -0,0 +1,72 @@
+package scheduler.repository.memory;
+
+import scheduler.repository.AvailabilityRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+public class InMemoryAvailabilityRepository implements AvailabilityRepository {
+    private final InMemoryStorage store;
+
+    public InMemoryAvailabilityRepository(InMemoryStorage store) {
+        this.store = store;
+    }
+
+    @Override
+    public void add(Date d, String caregiverName) throws SQLException {
+        if (!store.caregivers.containsKey(caregiverName)) {
+            throw new SQLException("Foreign key violation: no caregiver " + caregiverName);
+        }
+        if (!store.availableOn(d).add(caregiverName)) {
+            throw new SQLException("Duplicate key in Availabilities: " + d + ", " + caregiverName);
+        }
+    }
+
+    @Override
+    public int addAll(List<Date> dates, String caregiverName) throws SQLException {
+        if (!store.caregivers.containsKey(caregiverName)) {
+            throw new SQLException("Foreign key violation: no caregiver " + caregiverName);
+        }
+        int inserted = 0;
+        for (Date d : dates) {
+            if (store.availableOn(d).add(caregiverName)) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public List<String> findCaregivers(Date d) {
+        NavigableSet<String> caregivers = store.availabilities.get(d);
+        return caregivers == null ? new ArrayList<>() : new ArrayList<>(caregivers);
+    }
+
+    @Override
+    public Map<Date, Integer> countByDay(Date first, Date last) {
+        Map<Date, Integer> counts = new TreeMap<>();
+        for (Map.Entry<Date, NavigableSet<String>> entry : store.availabilities.entrySet()) {
+            Date d = entry.getKey();
+            int free = entry.getValue().size();
+            if (free > 0 && !d.before(first) && !d.after(last)) {
+                counts.put(d, free);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public void forEach(BiConsumer<Date, String> action) {
+        for (Map.Entry<Date, NavigableSet<String>> entry : store.availabilities.entrySet()) {
+            for (String caregiver : entry.getValue()) {
+                action.accept(entry.getKey(), caregiver);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.repository.memory;
+
+import scheduler.db.SqlErrors;
+import scheduler.model.Caregiver;
+import scheduler.repository.CaregiverRepository;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class InMemoryCaregiverRepository implements CaregiverRepository {
+    private final InMemoryStorage store;
+
+    public InMemoryCaregiverRepository(InMemoryStorage store) {
+        this.store = store;
+    }
+
+    @Override
+    public void save(Caregiver caregiver) throws SQLException {
+        if (store.caregivers.putIfAbsent(caregiver.getUsername(), caregiver) != null) {
+            throw new SQLException("Duplicate key in Caregivers: " + caregiver.getUsername(), SqlErrors.INTEGRITY_VIOLATION);
+        }
+    }
+
+    @Override
+    public int saveAll(List<Caregiver> caregivers) {
+        int inserted = 0;
+        for (Caregiver caregiver : caregivers) {
+            if (store.caregivers.putIfAbsent(caregiver.getUsername(), caregiver) == null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return store.caregivers.containsKey(username);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) {
+        store.caregivers.keySet().forEach(action);
+    }
+
+    @Override
+    public Caregiver find(String username) {
+        return store.caregivers.get(username);
+    }
+
+    @Override
+    public void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) {
+        store.caregivers.computeIfPresent(username,
+                (name, old) -> new Caregiver.CaregiverBuilder(name, salt, hash, iterations).build());
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.repository.memory;
+
+import scheduler.db.SqlErrors;
+import scheduler.model.Patient;
+import scheduler.repository.PatientRepository;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class InMemoryPatientRepository implements PatientRepository {
+    private final InMemoryStorage store;
+
+    public InMemoryPatientRepository(InMemoryStorage store) {
+        this.store = store;
+    }
+
+    @Override
+    public void save(Patient patient) throws SQLException {
+        if (store.patients.putIfAbsent(patient.getUsername(), patient) != null) {
+            throw new SQLException("Duplicate key in Patients: " + patient.getUsername(), SqlErrors.INTEGRITY_VIOLATION);
+        }
+    }
+
+    @Override
+    public int saveAll(List<Patient> patients) {
+        int inserted = 0;
+        for (Patient patient : patients) {
+            if (store.patients.putIfAbsent(patient.getUsername(), patient) == null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return store.patients.containsKey(username);
+    }
+
+    @Override
+    public void forEachUsername(Consumer<String> action) {
+        store.patients.keySet().forEach(action);
+    }
+
+    @Override
+    public Patient find(String username) {
+        return store.patients.get(username);
+    }
+
+    @Override
+    public void updateCredentials(String username, byte[] salt, byte[] hash, int iterations) {
+        store.patients.computeIfPresent(username,
+                (name, old) -> new Patient.PatientBuilder(name, salt, hash, iterations).build());
+    }
+}
@@ -0,0 +1,31 @@
+package scheduler.repository.memory;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.sql.Date;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The tables of the schema (see resources/migrations) as concurrent maps, shared by the in-memory repositories
+public class InMemoryStorage {
+    final Map<String, Patient> patients = new ConcurrentHashMap<>();
+    final Map<String, Caregiver> caregivers = new ConcurrentHashMap<>();
+    // vaccine name -> doses
+    final Map<String, Integer> vaccines = new ConcurrentHashMap<>();
+    // date -> caregivers available that day, sorted so "first caregiver" is stable like the primary key order
+    final Map<Date, NavigableSet<String>> availabilities = new ConcurrentHashMap<>();
+    final Map<Integer, Appointment> appointments = new ConcurrentHashMap<>();
+    // mirrors InventoryFlushes: node -> last applied write-behind sequence
+    final Map<String, Long> appliedSequences = new ConcurrentHashMap<>();
+    // mirrors Appointments.ID IDENTITY(1,1)
+    final AtomicInteger nextAppointmentId = new AtomicInteger(1);
+
+    NavigableSet<String> availableOn(Date d) {
+        return availabilities.computeIfAbsent(d, key -> new ConcurrentSkipListSet<>());
+    }
+}
@@ -0,0 +1,71 @@
+package scheduler.repository.memory;
+
+import scheduler.model.Vaccine;
+import scheduler.repository.VaccineRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class InMemoryVaccineRepository implements VaccineRepository {
+    private final InMemoryStorage store;
+
+    public InMemoryVaccineRepository(InMemoryStorage store) {
+        this.store = store;
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        if (store.vaccines.putIfAbsent(vaccine.getVaccineName(), vaccine.getAvailableDoses()) != null) {
+            throw new SQLException("Duplicate key in Vaccines: " + vaccine.getVaccineName());
+        }
+    }
+
+    @Override
+    public Vaccine find(String vaccineName) throws SQLException {
+        Integer doses = store.vaccines.get(vaccineName);
+        if (doses == null) {
+            return null;
+        }
+        return new Vaccine.VaccineBuilder(vaccineName, doses).build();
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : store.vaccines.entrySet()) {
+            vaccines.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue()).build());
+        }
+        return vaccines;
+    }
+
+    @Override
+    public void addDoses(String vaccineName, int delta) {
+        store.vaccines.computeIfPresent(vaccineName, (name, doses) -> doses + delta);
+    }
+
+    @Override
+    public void addDoses(Map<String, Integer> deltas) {
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            store.vaccines.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    @Override
+    public synchronized boolean applyDeltas(Map<String, Integer> deltas, String node, long sequence) {
+        if (store.appliedSequences.getOrDefault(node, 0L) >= sequence) {
+            return false;
+        }
+        for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+            store.vaccines.computeIfPresent(entry.getKey(), (name, doses) -> doses + entry.getValue());
+        }
+        store.appliedSequences.put(node, sequence);
+        return true;
+    }
+
+    @Override
+    public long lastAppliedSequence(String node) {
+        return store.appliedSequences.getOrDefault(node, 0L);
+    }
+}
@@ -0,0 +1,182 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.metrics.Metrics;
+import scheduler.repository.Repositories;
+import scheduler.util.CredentialService;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the scheduler commands over TCP, one line per command, so one JVM can serve many users.
+// Every connection gets its own Session (login state and output) and runs on its own virtual
+// thread when the JVM has them (Java 21+), otherwise on a cached platform thread pool.
+//
+//   java scheduler.server.SchedulerServer [--port=7000] [--max-sessions=10000] [--idle-timeout-ms=600000]
+//                                         [--storage=<sqlserver|embedded|memory>]
+public class SchedulerServer {
+
+    private static final int DEFAULT_PORT = 7000;
+    private static final int DEFAULT_MAX_SESSIONS = 10_000;
+    private static final int DEFAULT_IDLE_TIMEOUT_MS = 600_000;
+
+    private final int port;
+    private final int maxSessions;
+    private final int idleTimeoutMillis;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final ExecutorService sessions = newSessionExecutor();
+    private volatile ServerSocket serverSocket;
+
+    public SchedulerServer(int port, int maxSessions, int idleTimeoutMillis) {
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public static void main(String[] args) {
+        int port = intArg(args, "--port=", DEFAULT_PORT);
+        int maxSessions = intArg(args, "--max-sessions=", DEFAULT_MAX_SESSIONS);
+        int idleTimeout = intArg(args, "--idle-timeout-ms=", DEFAULT_IDLE_TIMEOUT_MS);
+        try {
+            Repositories.initFromArgs(args);
+            // the hashing settings too, so a bad one stops startup instead of the first login
+            CredentialService.get();
+        } catch (IllegalArgumentException | SQLException e) {
+            System.out.println("Could not start storage: " + e.getMessage());
+            return;
+        }
+        Metrics.registerMBean();
+        SchedulerServer server = new SchedulerServer(port, maxSessions, idleTimeout);
+        // on SIGTERM the JVM does not wait for main's finally, so the hook writes back what is held in memory
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            Repositories.shutdown();
+        }));
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Server stopped: " + e.getMessage());
+        } finally {
+            Repositories.shutdown();
+        }
+    }
+
+    public void serve() throws IOException {
+        serverSocket = new ServerSocket(port);
+        System.out.println("Scheduler listening on port " + serverSocket.getLocalPort());
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            if (activeSessions.incrementAndGet() > maxSessions) {
+                activeSessions.decrementAndGet();
+                reject(socket);
+                continue;
+            }
+            sessions.execute(() -> {
+                try {
+                    handle(socket);
+                } finally {
+                    activeSessions.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // closing anyway
+        }
+        sessions.shutdownNow();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()), false,
+                     StandardCharsets.UTF_8)) {
+            s.setSoTimeout(idleTimeoutMillis);
+            Session session = new Session(out);
+            Scheduler.printGreeting(out);
+            boolean open = true;
+            while (open) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null) {
+                    return;
+                }
+                try {
+                    open = Scheduler.execute(session, line.strip());
+                } catch (RuntimeException e) {
+                    // input or a failure the command did not handle; only this command fails, the session goes on
+                    out.println("Please try again!");
+                    e.printStackTrace();
+                }
+            }
+            out.flush();
+        } catch (SocketTimeoutException e) {
+            // idle client, drop the session
+        } catch (IOException e) {
+            // client went away mid-command
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket s = socket; PrintStream out = new PrintStream(s.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            out.println("Server busy, please try again later!");
+        } catch (IOException e) {
+            // nothing to tell a client that is already gone
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() exists from Java 21 on; look it up reflectively so the
+    // server still builds and runs on older JDKs, just with platform threads
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "session-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static int intArg(String[] args, String prefix, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return Integer.parseInt(arg.substring(prefix.length()));
+            }
+        }
+        return defaultValue;
+    }
+}
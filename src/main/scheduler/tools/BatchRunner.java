@@ -0,0 +1,268 @@
+package scheduler.tools;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.ConnectionManager;
+import scheduler.repository.Repositories;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Runs a script of scheduler commands, one per line, as a single session (so login_* carries over
+// to the lines after it). Blank lines and lines starting with # are skipped.
+//
+// Replies go to a large buffer instead of being flushed line by line, and runs of consecutive
+// add_doses / upload_availability / upload_availability_range commands share one transaction of up to
+// --group-size commands, so a restock script pays for one commit per group instead of one per line.
+// A command that fails inside a group only rolls back its own work (see ConnectionManager); if the
+// group's commit itself fails, every command in it is reported as failed.
+//
+// Ends with per-command timings and the script lines that failed.
+//
+//   java scheduler.tools.BatchRunner <script> [--group-size=500] [--storage=<sqlserver|embedded|memory>]
+public class BatchRunner {
+
+    private static final int DEFAULT_GROUP_SIZE = 500;
+    private static final int MAX_FAILURES_SHOWN = 100;
+    private static final Set<String> GROUPABLE = new HashSet<>(Arrays.asList(
+            "add_doses", "upload_availability", "upload_availability_range"));
+
+    private final Path script;
+    private final int groupSize;
+    private final boolean grouping;
+    private final PrintStream out;
+    private final CommandOutput replies;
+    private final PrintStream sessionOut;
+    private final Session session;
+
+    private final Map<String, Timing> timings = new LinkedHashMap<>();
+    private final List<Command> failures = new ArrayList<>();
+    private final List<Command> group = new ArrayList<>();
+    private int executed = 0;
+
+    private BatchRunner(Path script, int groupSize, boolean grouping, PrintStream out) {
+        this.script = script;
+        this.groupSize = groupSize;
+        this.grouping = grouping;
+        this.out = out;
+        this.replies = new CommandOutput(out);
+        this.sessionOut = new PrintStream(replies, false, StandardCharsets.UTF_8);
+        this.session = new Session(sessionOut);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: BatchRunner <script> [--group-size=N] [--storage=<sqlserver|embedded|memory>]");
+            return;
+        }
+        int groupSize = DEFAULT_GROUP_SIZE;
+        for (String arg : args) {
+            if (arg.startsWith("--group-size=")) {
+                groupSize = Integer.parseInt(arg.substring("--group-size=".length()));
+            }
+        }
+        if (groupSize < 1) {
+            System.out.println("The group size must be at least 1");
+            return;
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                false, StandardCharsets.UTF_8);
+        try {
+            Repositories.initFromArgs(args);
+            // the in-memory backend has no transactions to share
+            boolean grouping = Repositories.backend() != Repositories.Backend.MEMORY;
+            new BatchRunner(Paths.get(args[0]), groupSize, grouping, out).run();
+        } catch (IOException | SQLException e) {
+            out.println("Batch failed: " + e.getMessage());
+        } finally {
+            out.flush();
+            Repositories.shutdown();
+        }
+    }
+
+    private void run() throws IOException, SQLException {
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (!execute(new Command(lineNumber, line))) {
+                    break;
+                }
+            }
+            commitGroup();
+        } finally {
+            ConnectionManager.rollbackSharedTransaction();
+        }
+        printSummary(System.nanoTime() - start);
+    }
+
+    // returns false once the script says quit
+    private boolean execute(Command command) throws SQLException {
+        String operation = command.line.split(" ")[0];
+        boolean groupable = grouping && GROUPABLE.contains(operation);
+        if (!groupable) {
+            commitGroup();
+        } else if (!ConnectionManager.inSharedTransaction()) {
+            ConnectionManager.beginSharedTransaction();
+        }
+        out.println("> " + command.line);
+        replies.startCommand();
+        long start = System.nanoTime();
+        boolean open = true;
+        try {
+            open = Scheduler.execute(session, command.line);
+            sessionOut.flush();
+            command.reply = replies.reply();
+            command.failed = Scheduler.isFailureReply(command.reply);
+        } catch (RuntimeException e) {
+            sessionOut.flush();
+            command.reply = e.toString();
+            command.failed = true;
+            out.println(e);
+        }
+        timing(operation).record(System.nanoTime() - start, command.failed);
+        executed++;
+        if (command.failed) {
+            failures.add(command);
+        }
+        if (groupable) {
+            group.add(command);
+            if (group.size() >= groupSize) {
+                commitGroup();
+            }
+        }
+        return open;
+    }
+
+    private void commitGroup() {
+        if (!ConnectionManager.inSharedTransaction()) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            ConnectionManager.commitSharedTransaction();
+        } catch (SQLException e) {
+            failed = true;
+            out.println("Transaction of " + group.size() + " commands rolled back: " + e.getMessage());
+            for (Command command : group) {
+                if (!command.failed) {
+                    command.failed = true;
+                    command.reply = "rolled back with its group: " + e.getMessage();
+                    failures.add(command);
+                }
+            }
+        }
+        timing("(commit)").record(System.nanoTime() - start, failed);
+        group.clear();
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        out.println();
+        out.println(String.format("Ran %d commands in %.2f s (%.0f commands/s), %d failed", executed, seconds,
+                seconds <= 0 ? 0 : executed / seconds, failures.size()));
+        out.println(String.format("%-34s %8s %8s %10s %10s %10s", "command", "count", "failed", "total ms",
+                "avg ms", "max ms"));
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            Timing t = entry.getValue();
+            out.println(String.format("%-34s %8d %8d %10.1f %10.3f %10.3f", entry.getKey(), t.count, t.failed,
+                    t.totalNanos / 1e6, t.totalNanos / 1e6 / t.count, t.maxNanos / 1e6));
+        }
+        if (!failures.isEmpty()) {
+            out.println("Failed lines:");
+            for (Command command : failures.subList(0, Math.min(failures.size(), MAX_FAILURES_SHOWN))) {
+                out.println("  line " + command.lineNumber + ": " + command.line + " -> " + command.reply);
+            }
+            if (failures.size() > MAX_FAILURES_SHOWN) {
+                out.println("  ... and " + (failures.size() - MAX_FAILURES_SHOWN) + " more");
+            }
+        }
+    }
+
+    private Timing timing(String operation) {
+        return timings.computeIfAbsent(operation, key -> new Timing());
+    }
+
+    private static class Command {
+        private final int lineNumber;
+        private final String line;
+        private String reply = "";
+        private boolean failed = false;
+
+        private Command(int lineNumber, String line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+    }
+
+    private static class Timing {
+        private long count = 0;
+        private long failed = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        private void record(long nanos, boolean failure) {
+            count++;
+            if (failure) {
+                failed++;
+            }
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+
+    // Passes replies through to the batch output and keeps a copy of the current command's reply
+    private static class CommandOutput extends OutputStream {
+        private final OutputStream target;
+        private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+
+        private CommandOutput(OutputStream target) {
+            this.target = target;
+        }
+
+        private void startCommand() {
+            current.reset();
+        }
+
+        private String reply() {
+            return current.toString(StandardCharsets.UTF_8).strip();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            current.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            current.write(b, off, len);
+        }
+    }
+}
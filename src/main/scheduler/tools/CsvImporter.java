@@ -0,0 +1,371 @@
+package scheduler.tools;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.repository.Repositories;
+import scheduler.util.CredentialService;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Bulk onboarding from CSV files:
+//   patients / caregivers: username,password
+//   vaccines:              name,doses   (doses are added to the current stock)
+// Files are streamed batch by batch, passwords are hashed (with the configured HashIterations) on all
+// cores while the previous batch is being written, and every committed batch is recorded in
+// <file>.checkpoint so a failed import can simply be rerun and continues after the last committed line.
+public class CsvImporter {
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    // batches that are hashed but not written yet; keeps memory constant however large the file is
+    private static final int BATCHES_IN_FLIGHT = 2;
+    private static final int PROGRESS_EVERY_ROWS = 100_000;
+
+    private enum Kind { PATIENTS, CAREGIVERS, VACCINES }
+
+    private final Kind kind;
+    private final Path file;
+    private final Path checkpoint;
+    private final int batchSize;
+
+    private long imported = 0;
+    private long skipped = 0;
+    private long rejected = 0;
+
+    private CsvImporter(Kind kind, Path file, int batchSize) {
+        this.kind = kind;
+        this.file = file;
+        this.checkpoint = Paths.get(file + ".checkpoint");
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: CsvImporter <patients|caregivers|vaccines> <file.csv> " +
+                    "[--batch-size=N] [--storage=<sqlserver|embedded|memory>]");
+            return;
+        }
+        Kind kind;
+        try {
+            kind = Kind.valueOf(args[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown import type: " + args[0]);
+            return;
+        }
+        int batchSize = DEFAULT_BATCH_SIZE;
+        for (String arg : args) {
+            if (arg.startsWith("--batch-size=")) {
+                batchSize = Integer.parseInt(arg.substring("--batch-size=".length()));
+            }
+        }
+        if (batchSize < 1) {
+            System.out.println("Batch size must be positive!");
+            return;
+        }
+        try {
+            Repositories.initFromArgs(args);
+            new CsvImporter(kind, Paths.get(args[1]), batchSize).run();
+        } catch (IOException | SQLException e) {
+            System.out.println("Import failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            Repositories.shutdown();
+        }
+    }
+
+    private void run() throws IOException, SQLException {
+        long resumeAfter = readCheckpoint();
+        if (resumeAfter > 0) {
+            System.out.println("Resuming after line " + resumeAfter);
+        }
+        long start = System.nanoTime();
+        if (kind == Kind.VACCINES) {
+            importVaccines();
+        } else {
+            importUsers(resumeAfter);
+        }
+        Files.deleteIfExists(checkpoint);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Imported %d, skipped %d existing, rejected %d in %.1f s (%.0f rows/sec)%n",
+                imported, skipped, rejected, seconds, (imported + skipped) / Math.max(seconds, 1e-9));
+    }
+
+    // Vaccine files hold deliveries, so rows are summed per vaccine (a handful of entries however long
+    // the file is) and applied in one transaction: all or nothing, no checkpoint needed
+    private void importVaccines() throws IOException, SQLException {
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                List<String> fields = parseLine(line);
+                if (fields == null || isHeader(lineNumber, fields, "name")) {
+                    continue;
+                }
+                try {
+                    int count = Integer.parseInt(fields.get(1));
+                    if (fields.size() != 2 || count <= 0) {
+                        throw new NumberFormatException();
+                    }
+                    doses.merge(fields.get(0), count, Integer::sum);
+                    imported++;
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    reject(lineNumber, "expected name,doses with a positive number of doses");
+                }
+            }
+        }
+        Repositories.vaccines().addDoses(doses);
+    }
+
+    private void importUsers(long resumeAfter) throws IOException, SQLException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService hashers = Executors.newFixedThreadPool(threads, daemon("csv-import-hasher"));
+        BlockingQueue<Batch> toWrite = new ArrayBlockingQueue<>(BATCHES_IN_FLIGHT);
+        Writer writer = new Writer(toWrite);
+        Thread writerThread = new Thread(writer, "csv-import-writer");
+        writerThread.start();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Row> rows = new ArrayList<>(batchSize);
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null && writer.failure == null) {
+                lineNumber++;
+                if (lineNumber <= resumeAfter) {
+                    continue;
+                }
+                List<String> fields = parseLine(line);
+                if (fields == null || isHeader(lineNumber, fields, "username")) {
+                    continue;
+                }
+                if (fields.size() != 2 || fields.get(0).isEmpty() || fields.get(1).isEmpty()) {
+                    reject(lineNumber, "expected username,password");
+                    continue;
+                }
+                rows.add(new Row(fields.get(0), fields.get(1)));
+                if (rows.size() == batchSize) {
+                    toWrite.put(hash(hashers, threads, rows, lineNumber));
+                    rows = new ArrayList<>(batchSize);
+                }
+            }
+            if (!rows.isEmpty()) {
+                toWrite.put(hash(hashers, threads, rows, lineNumber));
+            }
+            toWrite.put(Batch.END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            hashers.shutdownNow();
+        }
+        if (writer.failure != null) {
+            System.out.println("Import stopped after line " + writer.committedLine + ", rerun to resume");
+            throw writer.failure;
+        }
+    }
+
+    // hashes a batch on all cores, one slice per thread
+    private Batch hash(ExecutorService hashers, int threads, List<Row> rows, long lastLine)
+            throws InterruptedException, IOException {
+        int slice = (rows.size() + threads - 1) / threads;
+        int iterations = CredentialService.get().getIterations();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += slice) {
+            List<Row> part = rows.subList(from, Math.min(rows.size(), from + slice));
+            tasks.add(() -> {
+                for (Row row : part) {
+                    row.salt = Util.generateSalt();
+                    row.iterations = iterations;
+                    row.hash = Util.generateHash(row.password, row.salt, iterations);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : hashers.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Hashing failed", e.getCause());
+            }
+        }
+        return new Batch(rows, lastLine);
+    }
+
+    private int save(List<Row> rows) throws SQLException {
+        if (kind == Kind.PATIENTS) {
+            List<Patient> patients = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                patients.add(new Patient.PatientBuilder(row.username, row.salt, row.hash, row.iterations).build());
+            }
+            return Repositories.patients().saveAll(patients);
+        }
+        List<Caregiver> caregivers = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            caregivers.add(new Caregiver.CaregiverBuilder(row.username, row.salt, row.hash, row.iterations).build());
+        }
+        return Repositories.caregivers().saveAll(caregivers);
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(checkpoint).trim());
+    }
+
+    // written to a temporary file and moved into place, so a crash never leaves half a number behind
+    private void writeCheckpoint(long line) throws IOException {
+        Path tmp = Paths.get(checkpoint + ".tmp");
+        Files.writeString(tmp, Long.toString(line));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void reject(long lineNumber, String reason) {
+        rejected++;
+        System.out.println("Skipping line " + lineNumber + ": " + reason);
+    }
+
+    private static boolean isHeader(long lineNumber, List<String> fields, String firstColumn) {
+        return lineNumber == 1 && fields.get(0).equalsIgnoreCase(firstColumn);
+    }
+
+    // Splits one CSV line, honouring double quotes (so passwords may contain commas).
+    // Returns null for blank lines.
+    private static List<String> parseLine(String line) {
+        if (line.isBlank()) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Writes hashed batches in file order and moves the checkpoint after each commit. Re-running a
+    // batch that committed just before a crash is harmless because saveAll skips existing usernames.
+    private class Writer implements Runnable {
+        private final BlockingQueue<Batch> batches;
+        private volatile SQLException failure = null;
+        private volatile long committedLine;
+
+        private Writer(BlockingQueue<Batch> batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        public void run() {
+            long sinceReport = 0;
+            long start = System.nanoTime();
+            try {
+                Batch batch;
+                while ((batch = batches.take()) != Batch.END) {
+                    int inserted = save(batch.rows);
+                    imported += inserted;
+                    skipped += batch.rows.size() - inserted;
+                    committedLine = batch.lastLine;
+                    writeCheckpoint(batch.lastLine);
+                    sinceReport += batch.rows.size();
+                    if (sinceReport >= PROGRESS_EVERY_ROWS) {
+                        double seconds = (System.nanoTime() - start) / 1e9;
+                        System.out.printf("%d rows written (%.0f rows/sec)%n", imported + skipped,
+                                (imported + skipped) / seconds);
+                        sinceReport = 0;
+                    }
+                }
+            } catch (SQLException e) {
+                failure = e;
+                drain();
+            } catch (IOException e) {
+                failure = new SQLException("Could not write checkpoint " + checkpoint, e);
+                drain();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // keep taking batches so the reader never blocks on a full queue after a failure
+        private void drain() {
+            try {
+                while (batches.take() != Batch.END) {
+                    // discard
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class Row {
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+        private int iterations;
+
+        private Row(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    private static class Batch {
+        private static final Batch END = new Batch(new ArrayList<>(), -1);
+
+        private final List<Row> rows;
+        private final long lastLine;
+
+        private Batch(List<Row> rows, long lastLine) {
+            this.rows = rows;
+            this.lastLine = lastLine;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package scheduler.tools;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.metrics.LatencyHistogram;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.repository.Repositories;
+import scheduler.util.CredentialService;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Reproduces a busy booking day against the command layer (Scheduler.execute), the same path the
+// console and SchedulerServer take:
+//   1. seeds --patients patients, --caregivers caregivers free on each of the next --days days and
+//      --doses doses of one vaccine (all synthetic, password "loadtest", reruns reuse them)
+//   2. runs --threads workers for --duration-s seconds, each picking commands by --mix weights;
+//      with --rate the workers share a fixed schedule of that many commands per second and latency
+//      is measured from when a command was due, so a stalled server cannot hide its queueing delay
+//   3. reports per command type throughput, p50/p99/p99.9/max latency, errors and rejections
+//      (sold out / no caregiver), then checks the books: doses taken must match reservations made,
+//      and no caregiver may be booked twice on one day
+//
+//   java scheduler.tools.LoadGenerator [--threads=16] [--duration-s=30] [--rate=0] [--patients=1000]
+//       [--caregivers=200] [--days=60] [--doses=caregivers*days]
+//       [--mix=create:5,login:10,search:30,reserve:35,show:20] [--seed=1] [--storage=<sqlserver|embedded|memory>]
+public class LoadGenerator {
+
+    private static final String PASSWORD = "loadtest";
+    private static final String VACCINE = "lg_vaccine";
+    private static final int SEED_BATCH = 1000;
+
+    private enum Op {
+        CREATE("create"), LOGIN("login"), SEARCH("search"), RESERVE("reserve"), SHOW("show");
+
+        private final String key;
+
+        Op(String key) {
+            this.key = key;
+        }
+    }
+
+    private final int threads;
+    private final long durationNanos;
+    private final int rate;
+    private final int patients;
+    private final int caregivers;
+    private final int days;
+    private final int doses;
+    private final Map<Op, Integer> mix;
+    private final long seed;
+    private final LocalDate firstDay = LocalDate.now().plusDays(1);
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Map<Op, Stats> stats = new EnumMap<>(Op.class);
+    private final LongAdder reserved = new LongAdder();
+
+    private LoadGenerator(String[] args) {
+        this.threads = intArg(args, "--threads=", 16);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(intArg(args, "--duration-s=", 30));
+        this.rate = intArg(args, "--rate=", 0);
+        this.patients = intArg(args, "--patients=", 1000);
+        this.caregivers = intArg(args, "--caregivers=", 200);
+        this.days = intArg(args, "--days=", 60);
+        this.doses = intArg(args, "--doses=", caregivers * days);
+        this.seed = intArg(args, "--seed=", 1);
+        this.mix = parseMix(stringArg(args, "--mix=", "create:5,login:10,search:30,reserve:35,show:20"));
+        for (Op op : Op.values()) {
+            stats.put(op, new Stats());
+        }
+        if (threads < 1 || patients < 1 || caregivers < 1 || days < 1) {
+            throw new IllegalArgumentException("threads, patients, caregivers and days must be at least 1");
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            LoadGenerator generator = new LoadGenerator(args);
+            Repositories.initFromArgs(args);
+            generator.seedData();
+            int dosesBefore = generator.currentDoses();
+            generator.drive();
+            generator.report();
+            generator.verify(dosesBefore);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException | InterruptedException e) {
+            System.out.println("Load generation failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            Repositories.shutdown();
+        }
+    }
+
+    private void seedData() throws SQLException {
+        long start = System.nanoTime();
+        // everyone shares one salt and hash, logins still pay for the full hash
+        byte[] salt = Util.generateSalt();
+        int iterations = CredentialService.get().getIterations();
+        byte[] hash = Util.generateHash(PASSWORD, salt, iterations);
+        List<Patient> patientBatch = new ArrayList<>();
+        for (int i = 0; i < patients; i++) {
+            patientBatch.add(new Patient.PatientBuilder(patientName(i), salt, hash, iterations).build());
+            if (patientBatch.size() == SEED_BATCH || i == patients - 1) {
+                Repositories.patients().saveAll(patientBatch);
+                patientBatch.clear();
+            }
+        }
+        List<Caregiver> caregiverBatch = new ArrayList<>();
+        for (int i = 0; i < caregivers; i++) {
+            caregiverBatch.add(new Caregiver.CaregiverBuilder(caregiverName(i), salt, hash, iterations).build());
+            if (caregiverBatch.size() == SEED_BATCH || i == caregivers - 1) {
+                Repositories.caregivers().saveAll(caregiverBatch);
+                caregiverBatch.clear();
+            }
+        }
+        List<Date> dates = new ArrayList<>();
+        for (int d = 0; d < days; d++) {
+            dates.add(day(d));
+        }
+        for (int i = 0; i < caregivers; i++) {
+            Repositories.availabilities().addAll(dates, caregiverName(i));
+        }
+        Map<String, Integer> delivery = new HashMap<>();
+        delivery.put(VACCINE, doses);
+        Repositories.vaccines().addDoses(delivery);
+        System.out.printf("Seeded %d patients, %d caregivers x %d days, %d doses in %.1f s%n", patients, caregivers,
+                days, doses, (System.nanoTime() - start) / 1e9);
+    }
+
+    private void drive() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        AtomicLong nextSlot = new AtomicLong(start);
+        AtomicInteger ids = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            workers.execute(() -> work(ids.getAndIncrement(), deadline, interval, nextSlot));
+        }
+        workers.shutdown();
+        workers.awaitTermination(durationNanos + TimeUnit.MINUTES.toNanos(5), TimeUnit.NANOSECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Ran %d threads for %.1f s%s%n", threads, seconds, rate > 0 ? " at " + rate + "/s" : "");
+    }
+
+    private void work(int worker, long deadline, long interval, AtomicLong nextSlot) {
+        Random random = new Random(seed * 31 + worker);
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(captured, false, StandardCharsets.UTF_8);
+        // search, reserve and show run as this worker's patient, logged in once
+        Session own = new Session(out);
+        while (true) {
+            try {
+                Scheduler.execute(own, "login_patient " + patientName(worker % patients) + " " + PASSWORD);
+                out.flush();
+                if (!Scheduler.isFailureReply(captured.toString(StandardCharsets.UTF_8))) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                // retried below like a busy reply
+            }
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+            captured.reset();
+        }
+        int created = 0;
+        while (true) {
+            long due;
+            if (interval > 0) {
+                due = nextSlot.getAndAdd(interval);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            } else {
+                due = System.nanoTime();
+            }
+            if (due >= deadline) {
+                return;
+            }
+            Op op = pick(random);
+            Session session = own;
+            String line;
+            switch (op) {
+                case CREATE:
+                    session = new Session(out);
+                    line = "create_patient lg_n_" + runId + "_" + worker + "_" + created++ + " " + PASSWORD;
+                    break;
+                case LOGIN:
+                    session = new Session(out);
+                    line = "login_patient " + patientName(random.nextInt(patients)) + " " + PASSWORD;
+                    break;
+                case SEARCH:
+                    line = "search_caregiver_schedule " + day(random.nextInt(days));
+                    break;
+                case RESERVE:
+                    line = "reserve " + day(random.nextInt(days)) + " " + VACCINE;
+                    break;
+                default:
+                    line = "show_appointments 20";
+                    break;
+            }
+            captured.reset();
+            String reply;
+            try {
+                Scheduler.execute(session, line);
+                out.flush();
+                reply = captured.toString(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                reply = "Error occurred: " + e;
+            }
+            long latency = System.nanoTime() - due;
+            Stats s = stats.get(op);
+            s.latency.record(latency);
+            if (reply.startsWith("No available")) {
+                s.rejected.increment();
+            } else if (Scheduler.isFailureReply(reply)) {
+                s.errors.increment();
+            } else if (op == Op.RESERVE) {
+                reserved.increment();
+            }
+        }
+    }
+
+    private void report() {
+        double seconds = durationNanos / 1e9;
+        System.out.println(String.format("%-8s %9s %9s %8s %9s %9s %9s %9s %9s", "command", "ops", "ops/s",
+                "errors", "rejected", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<Op, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            LatencyHistogram h = s.latency;
+            if (h.getCount() == 0) {
+                continue;
+            }
+            System.out.println(String.format("%-8s %9d %9.1f %8d %9d %9.2f %9.2f %9.2f %9.2f", entry.getKey().key,
+                    h.getCount(), h.getCount() / seconds, s.errors.sum(), s.rejected.sum(),
+                    h.percentileNanos(0.50) / 1e6, h.percentileNanos(0.99) / 1e6, h.percentileNanos(0.999) / 1e6,
+                    h.getMaxNanos() / 1e6));
+        }
+    }
+
+    // doses taken must equal reservations made, the stock must not go negative, and no caregiver may
+    // have two appointments on one day
+    private void verify(int dosesBefore) throws SQLException {
+        int dosesAfter = currentDoses();
+        long booked = reserved.sum();
+        long mismatch = (dosesBefore - dosesAfter) - booked;
+        int doubleBooked = 0;
+        for (int i = 0; i < caregivers; i++) {
+            Set<Date> busy = new HashSet<>();
+            for (Appointment appointment : Repositories.appointments().findByCaregiver(caregiverName(i))) {
+                if (!busy.add(appointment.getTime())) {
+                    doubleBooked++;
+                }
+            }
+        }
+        System.out.printf("Reservations: %d, doses taken: %d, dose mismatch: %d, oversold: %d, double-booked: %d%n",
+                booked, dosesBefore - dosesAfter, mismatch, Math.max(0, -dosesAfter), doubleBooked);
+        if (mismatch != 0 || dosesAfter < 0 || doubleBooked > 0) {
+            System.out.println("CONSISTENCY CHECK FAILED");
+        }
+    }
+
+    private int currentDoses() throws SQLException {
+        Vaccine vaccine = Repositories.vaccines().find(VACCINE);
+        return vaccine == null ? 0 : vaccine.getAvailableDoses();
+    }
+
+    private Op pick(Random random) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        int roll = random.nextInt(total);
+        for (Map.Entry<Op, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        return Op.SEARCH;
+    }
+
+    private Date day(int offset) {
+        return Date.valueOf(firstDay.plusDays(offset));
+    }
+
+    private static String patientName(int i) {
+        return "lg_p" + i;
+    }
+
+    private static String caregiverName(int i) {
+        return "lg_c" + i;
+    }
+
+    private static Map<Op, Integer> parseMix(String spec) {
+        Map<Op, Integer> weights = new EnumMap<>(Op.class);
+        for (String part : spec.split(",")) {
+            String[] pair = part.split(":");
+            Op op = null;
+            for (Op candidate : Op.values()) {
+                if (candidate.key.equals(pair[0].trim())) {
+                    op = candidate;
+                }
+            }
+            if (op == null || pair.length != 2) {
+                throw new IllegalArgumentException("Invalid --mix entry: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                weights.put(op, weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("--mix needs at least one positive weight");
+        }
+        return weights;
+    }
+
+    private static int intArg(String[] args, String prefix, int defaultValue) {
+        String value = stringArg(args, prefix, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String stringArg(String[] args, String prefix, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    private static class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        // refused for lack of caregivers or doses, which is the expected end of a busy day
+        private final LongAdder rejected = new LongAdder();
+    }
+}
@@ -0,0 +1,154 @@
+package scheduler.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Password hashing for login and account creation. Hashes run on a small pool sized to the CPU,
+// and callers wait for a free slot (thread or queue) for a bounded time, so a storm of logins
+// queues up here instead of eating every core the other commands need.
+//
+// Configured through the environment:
+//   HashIterations       PBKDF2 iterations for new and rehashed passwords (default Util.HASH_STRENGTH)
+//   HashThreads          hashing threads (default: number of cores)
+//   HashQueueCapacity    hashes allowed to wait for a thread (default: 4 per thread)
+//   HashSubmitTimeoutMs  how long a caller waits for a slot before giving up (default 2000)
+public class CredentialService {
+
+    private static volatile CredentialService instance = null;
+
+    private final int iterations;
+    private final long submitTimeoutMillis;
+    private final ThreadPoolExecutor executor;
+    // threads + queue; a caller holds a slot from submit until its hash is done
+    private final Semaphore slots;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rehashes = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    public CredentialService(int iterations, int threads, int queueCapacity, long submitTimeoutMillis) {
+        if (iterations < 1 || threads < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid credential service configuration");
+        }
+        this.iterations = iterations;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+        this.slots = new Semaphore(threads + queueCapacity);
+        AtomicInteger count = new AtomicInteger();
+        // The semaphore bounds how many hashes are in flight. A slot is released as soon as its hash is
+        // done, which can be before the pool thread is back waiting on the queue, so the queue must have
+        // room for every slot or a submit can be rejected in that window.
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads + queueCapacity), r -> {
+                    Thread t = new Thread(r, "credential-hasher-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    public static CredentialService get() {
+        CredentialService service = instance;
+        if (service == null) {
+            synchronized (CredentialService.class) {
+                service = instance;
+                if (service == null) {
+                    int cores = Runtime.getRuntime().availableProcessors();
+                    int threads = Util.intEnv("HashThreads", cores);
+                    service = new CredentialService(Util.intEnv("HashIterations", Util.HASH_STRENGTH), threads,
+                            Util.intEnv("HashQueueCapacity", threads * 4), Util.intEnv("HashSubmitTimeoutMs", 2000));
+                    instance = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    // iteration count used for new passwords
+    public int getIterations() {
+        return iterations;
+    }
+
+    // true when a password stored with storedIterations should be rehashed at the configured cost
+    public boolean needsRehash(int storedIterations) {
+        return storedIterations != iterations;
+    }
+
+    public byte[] hash(String password, byte[] salt) {
+        return hash(password, salt, iterations);
+    }
+
+    // Throws IllegalStateException with a user-facing message when the hashing pool stays full
+    public byte[] hash(String password, byte[] salt, int iterations) {
+        try {
+            if (!slots.tryAcquire(submitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new IllegalStateException("Server busy, please try again!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to check the password");
+        }
+        try {
+            Future<byte[]> result = executor.submit(() -> {
+                long start = System.nanoTime();
+                byte[] hash = Util.generateHash(password, salt, iterations);
+                hashNanos.add(System.nanoTime() - start);
+                hashes.increment();
+                return hash;
+            });
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to check the password");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            slots.release();
+        }
+    }
+
+    public void recordRehash() {
+        rehashes.increment();
+    }
+
+    public long getHashCount() {
+        return hashes.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getRehashCount() {
+        return rehashes.sum();
+    }
+
+    public double getAverageHashMicros() {
+        long count = hashes.sum();
+        return count == 0 ? 0 : hashNanos.sum() / 1000.0 / count;
+    }
+
+    // hashes completed per second since the service started
+    public double getHashesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : hashes.sum() / seconds;
+    }
+
+    public int getQueuedHashes() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hashes=%d rate=%.1f/s avg=%.1fus queued=%d rejected=%d rehashed=%d iterations=%d",
+                getHashCount(), getHashesPerSecond(), getAverageHashMicros(), getQueuedHashes(), getRejectedCount(),
+                getRehashCount(), iterations);
+    }
+}
@@ -11,28 +11,41 @@ import java.util.Arrays;
 public class Util {
 
     // constants for handling password
-    private static final int HASH_STRENGTH = 10;
+    // HASH_STRENGTH is the iteration count every account was created with before it became configurable
+    public static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
+    // looking up the factory and seeding a SecureRandom are far more expensive than using them,
+    // so each thread keeps its own instances (neither needs to be shared across threads)
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+    private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.get().nextBytes(salt);
         return salt;
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
+        return generateHash(password, salt, HASH_STRENGTH);
+    }
+
+    public static byte[] generateHash(String password, byte[] salt, int iterations) {
         // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            hash = FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException();
         }
         return hash;
@@ -48,4 +61,30 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    // a numeric setting from the environment, or defaultValue when it is not set; a value that is
+    // not a number stops startup rather than being ignored, and the message names the setting
+    public static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, not " + value);
+        }
+    }
+
+    public static long longEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, not " + value);
+        }
+    }
 }
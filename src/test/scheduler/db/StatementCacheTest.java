@@ -0,0 +1,80 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A cached statement goes back to the pool the way it was prepared, whatever limits its last borrower set
+class StatementCacheTest {
+    private static final String FIND = "SELECT Username FROM Availabilities WHERE Time = ?";
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void openPool() throws SQLException {
+        // one connection, so every borrow gets the same statement cache
+        pool = new ConnectionPool("jdbc:h2:mem:statement-cache;DB_CLOSE_DELAY=-1", "", "",
+                new ConnectionPool.ConfigBuilder().minSize(1).maxSize(1).statementCacheSize(8).build());
+        Connection con = pool.borrow();
+        try (Statement statement = con.createStatement()) {
+            statement.execute("CREATE TABLE Availabilities (Time date, Username varchar(255))");
+            for (int i = 0; i < 40; i++) {
+                statement.execute("INSERT INTO Availabilities VALUES (DATE '2026-11-01', 'c" + i + "')");
+            }
+        } finally {
+            pool.release(con);
+        }
+    }
+
+    @AfterEach
+    void closePool() throws SQLException {
+        Connection con = pool.borrow();
+        try (Statement statement = con.createStatement()) {
+            statement.execute("DROP TABLE Availabilities");
+        } finally {
+            pool.release(con);
+        }
+        pool.close();
+    }
+
+    @Test
+    void limitsDoNotCarryOverToTheNextBorrower() throws SQLException {
+        // what a reservation does when it reads candidates to claim
+        Connection con = pool.borrow();
+        PreparedStatement limited = con.prepareStatement(FIND);
+        limited.setMaxRows(32);
+        limited.setFetchSize(16);
+        limited.setQueryTimeout(5);
+        limited.setDate(1, java.sql.Date.valueOf("2026-11-01"));
+        assertEquals(32, count(limited));
+        pool.release(con);
+
+        // then a schedule search with the same SQL text on the same connection
+        con = pool.borrow();
+        PreparedStatement search = con.prepareStatement(FIND);
+        assertEquals(0, search.getMaxRows());
+        assertEquals(0, search.getQueryTimeout());
+        search.setDate(1, java.sql.Date.valueOf("2026-11-01"));
+        assertEquals(40, count(search));
+        pool.release(con);
+        assertEquals(1, pool.getStatementCacheHits());
+    }
+
+    private static int count(PreparedStatement statement) throws SQLException {
+        int rows = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+}